@@ -0,0 +1,461 @@
+package app;
+
+import java.util.*;
+
+/**
+ * An expression parsed once into a program, to be evaluated any number of times with
+ * different values. The program is the expression in postfix order: a list of instructions,
+ * each of which pushes a value on a stack or replaces the values on top of it by the result
+ * of an operation. Evaluating runs the instructions in a loop, doing float arithmetic as
+ * Expression.evaluate does, with no string handling, no parsing and no recursion, so an
+ * expression of any length evaluates in a stack as deep as its operands are nested.
+ *
+ * Simple variables and arrays are numbered in the order they first appear in the expression
+ * (their slots), and evaluate takes their values in arrays indexed by slot. The grammar is:
+ * <pre>
+ *     expr    := term (('+' | '-') term)*
+ *     term    := unary (('*' | '/') unary)*
+ *     unary   := '-' unary | primary
+ *     primary := number | name '[' expr ']' | name | '(' expr ')'
+ * </pre>
+ * where a name is a sequence of letters and a number a sequence of digits with at most one
+ * '.'. Whitespace is ignored. An array subscript is rounded down to an int.
+ *
+ * evaluateColumns evaluates the expression for many rows of variable values at once, given
+ * as one column of values per variable. The program is run once per block of BLOCK rows,
+ * with a block of values for each stack entry, and each instruction works out its values for
+ * the whole block in a simple loop over float arrays, which the JIT compiler can unroll and
+ * vectorize.
+ *
+ */
+public class CompiledExpression {
+
+	/**
+	 * Instructions of the program; the argument of each is in args.
+	 */
+	static final byte CONSTANT = 0;   // push the float whose bits are the argument
+	static final byte SCALAR = 1;     // push the value of the variable in the argument slot
+	static final byte ELEMENT = 2;    // replace the top by the element of the array in the argument slot it subscripts
+	static final byte NEGATE = 3;     // replace the top by its negation
+	static final byte ADD = 4;        // replace the top two by their sum
+	static final byte SUBTRACT = 5;   // ... difference
+	static final byte MULTIPLY = 6;   // ... product
+	static final byte DIVIDE = 7;     // ... quotient
+
+	/**
+	 * Change in the stack depth of each instruction.
+	 */
+	static final int[] STACK_CHANGE = { 1, 1, 0, 0, -1, -1, -1, -1 };
+
+	/**
+	 * Stack of evaluate, one per thread, kept for reuse and grown to the deepest program run.
+	 */
+	private static final ThreadLocal<float[]> STACKS = new ThreadLocal<float[]>() {
+		protected float[] initialValue() {
+			return new float[16];
+		}
+	};
+
+	/**
+	 * Number of rows evaluated at a time by evaluateColumns.
+	 */
+	static final int BLOCK = 1024;
+
+	/**
+	 * The expression as given.
+	 */
+	final String text;
+
+	/**
+	 * The program: instructions, their arguments, and the most values on the stack at once.
+	 */
+	final byte[] ops;
+	final int[] args;
+	final int maxDepth;
+
+	/**
+	 * Names of the simple variables and the arrays, by slot.
+	 */
+	final ArrayList<String> variableNames;
+	final ArrayList<String> arrayNames;
+
+	private CompiledExpression(String text, Parser p) {
+		this.text = text;
+		ops = Arrays.copyOf(p.ops, p.size);
+		args = Arrays.copyOf(p.args, p.size);
+		maxDepth = p.maxDepth;
+		this.variableNames = p.symbols.variableNames();
+		this.arrayNames = p.symbols.arrayNames();
+	}
+
+	/**
+	 * Parses an expression.
+	 *
+	 * @param expr The expression
+	 * @return The compiled expression
+	 * @throws IllegalArgumentException If the expression is not well formed
+	 */
+	public static CompiledExpression compile(String expr) {
+		Parser p = new Parser(expr);
+		p.expr();
+		p.skipSpace();
+		if (p.pos < expr.length()) {
+			throw p.error("unexpected '" + expr.charAt(p.pos) + "'");
+		}
+		return new CompiledExpression(expr, p);
+	}
+
+	/**
+	 * Recursive descent parser, one method per grammar rule, which writes the program as it
+	 * goes: the code of the operands of an operation, then the operation. Chains of operators
+	 * and of minus signs are parsed in loops, so only brackets nest calls.
+	 */
+	private static class Parser {
+		final String expr;
+		int pos;
+		final SymbolTable symbols = new SymbolTable();
+		byte[] ops = new byte[16];
+		int[] args = new int[16];
+		int size, depth, maxDepth;
+
+		Parser(String expr) {
+			this.expr = expr;
+		}
+
+		void emit(byte op, int arg) {
+			if (size == ops.length) {
+				ops = Arrays.copyOf(ops, 2 * size);
+				args = Arrays.copyOf(args, 2 * size);
+			}
+			ops[size] = op;
+			args[size++] = arg;
+			depth += STACK_CHANGE[op];
+			maxDepth = Math.max(maxDepth, depth);
+		}
+
+		void expr() {
+			term();
+			for (char c = peek(); c == '+' || c == '-'; c = peek()) {
+				pos++;
+				term();
+				emit(c == '+' ? ADD : SUBTRACT, 0);
+			}
+		}
+
+		void term() {
+			unary();
+			for (char c = peek(); c == '*' || c == '/'; c = peek()) {
+				pos++;
+				unary();
+				emit(c == '*' ? MULTIPLY : DIVIDE, 0);
+			}
+		}
+
+		void unary() {
+			int minuses = 0;
+			while (peek() == '-') {
+				pos++;
+				minuses++;
+			}
+			primary();
+			for (int i = 0; i < minuses; i++) {
+				emit(NEGATE, 0);
+			}
+		}
+
+		void primary() {
+			char c = peek();
+			if (c == '(') {
+				pos++;
+				expr();
+				expect(')');
+				return;
+			}
+			int start = pos;
+			if (Character.isDigit(c) || c == '.') {
+				while (pos < expr.length() && (Character.isDigit(expr.charAt(pos)) || expr.charAt(pos) == '.')) {
+					pos++;
+				}
+				try {
+					emit(CONSTANT, Float.floatToRawIntBits(Float.parseFloat(expr.substring(start, pos))));
+				} catch (NumberFormatException e) {
+					throw error("bad number " + expr.substring(start, pos));
+				}
+				return;
+			}
+			if (Character.isLetter(c)) {
+				while (pos < expr.length() && Character.isLetter(expr.charAt(pos))) {
+					pos++;
+				}
+				String name = expr.substring(start, pos);
+				if (peek() == '[') {
+					pos++;
+					expr();
+					expect(']');
+					emit(ELEMENT, symbols.addArray(name));
+				} else {
+					emit(SCALAR, symbols.addVariable(name));
+				}
+				return;
+			}
+			throw error(c == 0 ? "unexpected end" : "unexpected '" + c + "'");
+		}
+
+		/**
+		 * Skips whitespace, and returns the next character, or 0 at the end.
+		 */
+		char peek() {
+			skipSpace();
+			return pos < expr.length() ? expr.charAt(pos) : 0;
+		}
+
+		void skipSpace() {
+			while (pos < expr.length() && Character.isWhitespace(expr.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		void expect(char c) {
+			if (peek() != c) {
+				throw error("expected '" + c + "'");
+			}
+			pos++;
+		}
+
+		IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at " + pos + " in " + expr);
+		}
+	}
+
+	/**
+	 * Returns the names of the simple variables, by slot.
+	 *
+	 * @return Variable names
+	 */
+	public List<String> variableNames() {
+		return Collections.unmodifiableList(variableNames);
+	}
+
+	/**
+	 * Returns the names of the arrays, by slot.
+	 *
+	 * @return Array names
+	 */
+	public List<String> arrayNames() {
+		return Collections.unmodifiableList(arrayNames);
+	}
+
+	/**
+	 * Evaluates the expression.
+	 *
+	 * @param values Values of the simple variables, by slot (see variableNames)
+	 * @param arrays Values of the arrays, by slot (see arrayNames)
+	 * @return Result of evaluation
+	 * @throws ArrayIndexOutOfBoundsException If an array subscript is out of bounds
+	 */
+	public float evaluate(int[] values, int[][] arrays) {
+		float[] stack = STACKS.get();
+		if (stack.length < maxDepth) {
+			stack = new float[maxDepth];
+			STACKS.set(stack);
+		}
+		int top = -1;
+		for (int pc = 0; pc < ops.length; pc++) {
+			switch (ops[pc]) {
+			case CONSTANT: stack[++top] = Float.intBitsToFloat(args[pc]); break;
+			case SCALAR: stack[++top] = values[args[pc]]; break;
+			case ELEMENT: stack[top] = arrays[args[pc]][(int)Math.floor(stack[top])]; break;
+			case NEGATE: stack[top] = -stack[top]; break;
+			case ADD: top--; stack[top] = stack[top] + stack[top + 1]; break;
+			case SUBTRACT: top--; stack[top] = stack[top] - stack[top + 1]; break;
+			case MULTIPLY: top--; stack[top] = stack[top] * stack[top + 1]; break;
+			default: top--; stack[top] = stack[top] / stack[top + 1]; break;
+			}
+		}
+		return stack[0];
+	}
+
+	/**
+	 * Returns the expression as generated bytecode, which evaluates the same as this but
+	 * without interpreting the program. The class is generated on the first call for an expression
+	 * text, and cached; see JitExpression.
+	 *
+	 * @return Bytecode version of the expression
+	 */
+	public JitExpression jit() {
+		return JitExpression.of(this);
+	}
+
+	/**
+	 * Evaluates the expression with values given as in Expression.evaluate. The variables and
+	 * arrays are looked up by name, in a SymbolTable made over the lists, on every call; to
+	 * evaluate many times, look them up once and call evaluate(int[], int[][]).
+	 *
+	 * @param vars The variables array list, with values for all variables in the expression
+	 * @param arrays The arrays array list, with values for all array items
+	 * @return Result of evaluation
+	 * @throws IllegalArgumentException If a variable or array of the expression is not in the lists
+	 */
+	public float evaluate(ArrayList<Variable> vars, ArrayList<Array> arrays) {
+		SymbolTable symbols = new SymbolTable(vars, arrays);
+		int[] values = new int[variableNames.size()];
+		for (int slot = 0; slot < values.length; slot++) {
+			Variable v = symbols.variable(variableNames.get(slot));
+			if (v == null) {
+				throw new IllegalArgumentException("no value for " + variableNames.get(slot));
+			}
+			values[slot] = v.value;
+		}
+		int[][] arrayValues = new int[arrayNames.size()][];
+		for (int slot = 0; slot < arrayValues.length; slot++) {
+			Array a = symbols.array(arrayNames.get(slot));
+			if (a == null) {
+				throw new IllegalArgumentException("no values for " + arrayNames.get(slot));
+			}
+			arrayValues[slot] = a.values;
+		}
+		return evaluate(values, arrayValues);
+	}
+
+	/**
+	 * Evaluates the expression for every row of a batch of variable values, given by column:
+	 * row i has the value columns[slot][i] for the variable of each slot. The results are the
+	 * same, row by row, as those of evaluate(int[], int[][]).
+	 *
+	 * @param columns Values of the simple variables, one column per slot (see variableNames),
+	 *        each at least as long as results
+	 * @param arrays Values of the arrays, by slot (see arrayNames), the same for every row
+	 * @param results Where the result of each row goes; its length is the number of rows
+	 * @throws ArrayIndexOutOfBoundsException If an array subscript is out of bounds, or a column is too short
+	 */
+	public void evaluateColumns(int[][] columns, int[][] arrays, float[] results) {
+		evaluateColumns(columns, null, arrays, results);
+	}
+
+	/**
+	 * Same as evaluateColumns(int[][], int[][], float[]), with float values for the simple
+	 * variables.
+	 *
+	 * @param columns Values of the simple variables, one column per slot, each at least as long as results
+	 * @param arrays Values of the arrays, by slot, the same for every row
+	 * @param results Where the result of each row goes; its length is the number of rows
+	 * @throws ArrayIndexOutOfBoundsException If an array subscript is out of bounds, or a column is too short
+	 */
+	public void evaluateColumns(float[][] columns, int[][] arrays, float[] results) {
+		evaluateColumns(null, columns, arrays, results);
+	}
+
+	/**
+	 * Runs the program on blocks of rows: each stack entry is a block of values, one per row,
+	 * so the stack takes maxDepth blocks.
+	 */
+	private void evaluateColumns(int[][] intColumns, float[][] floatColumns, int[][] arrays, float[] results) {
+		float[][] stack = new float[Math.max(maxDepth, 1)][BLOCK];
+		for (int from = 0; from < results.length; from += BLOCK) {
+			int n = Math.min(BLOCK, results.length - from);
+			int top = -1;
+			for (int pc = 0; pc < ops.length; pc++) {
+				int arg = args[pc];
+				switch (ops[pc]) {
+				case CONSTANT:
+					Arrays.fill(stack[++top], 0, n, Float.intBitsToFloat(arg));
+					break;
+				case SCALAR: {
+					float[] out = stack[++top];
+					if (intColumns != null) {
+						int[] column = intColumns[arg];
+						for (int i = 0; i < n; i++) {
+							out[i] = column[from + i];
+						}
+					} else {
+						System.arraycopy(floatColumns[arg], from, out, 0, n);
+					}
+					break;
+				}
+				case ELEMENT: {
+					float[] out = stack[top];
+					int[] values = arrays[arg];
+					for (int i = 0; i < n; i++) {
+						out[i] = values[(int)Math.floor(out[i])];
+					}
+					break;
+				}
+				case NEGATE: {
+					float[] out = stack[top];
+					for (int i = 0; i < n; i++) {
+						out[i] = -out[i];
+					}
+					break;
+				}
+				default:
+					top--;
+					binaryBlock(ops[pc], stack[top], stack[top + 1], n);
+					break;
+				}
+			}
+			System.arraycopy(stack[0], 0, results, from, n);
+		}
+	}
+
+	/**
+	 * Works out out[i] = out[i] op r[i] for i in 0..n-1, with a loop per operator, so each
+	 * loop is simple enough for the JIT compiler to vectorize.
+	 */
+	private static void binaryBlock(byte op, float[] out, float[] r, int n) {
+		switch (op) {
+		case ADD:
+			for (int i = 0; i < n; i++) {
+				out[i] = out[i] + r[i];
+			}
+			break;
+		case SUBTRACT:
+			for (int i = 0; i < n; i++) {
+				out[i] = out[i] - r[i];
+			}
+			break;
+		case MULTIPLY:
+			for (int i = 0; i < n; i++) {
+				out[i] = out[i] * r[i];
+			}
+			break;
+		default:
+			for (int i = 0; i < n; i++) {
+				out[i] = out[i] / r[i];
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Returns the expression as given.
+	 *
+	 * @return Expression text
+	 */
+	public String text() {
+		return text;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		// rebuilds the fully bracketed expression from the program, on a stack of strings
+		ArrayList<String> stack = new ArrayList<String>();
+		for (int pc = 0; pc < ops.length; pc++) {
+			int arg = args[pc];
+			switch (ops[pc]) {
+			case CONSTANT: stack.add(String.valueOf(Float.intBitsToFloat(arg))); break;
+			case SCALAR: stack.add(variableNames.get(arg)); break;
+			case ELEMENT: stack.add(arrayNames.get(arg) + "[" + stack.remove(stack.size() - 1) + "]"); break;
+			case NEGATE: stack.add("(-" + stack.remove(stack.size() - 1) + ")"); break;
+			default: {
+				String right = stack.remove(stack.size() - 1);
+				String left = stack.remove(stack.size() - 1);
+				stack.add("(" + left + " " + "????+-*/".charAt(ops[pc]) + " " + right + ")");
+				break;
+			}
+			}
+		}
+		return stack.get(0);
+	}
+}
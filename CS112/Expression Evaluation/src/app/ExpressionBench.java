@@ -0,0 +1,447 @@
+package app;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Benchmarks for the expression evaluator. Run from the project directory (where the
+ * etest files are) with the benchmark name and its arguments:
+ * <pre>
+ *     java app.ExpressionBench compile [rounds]
+ *     java app.ExpressionBench batch [rows]
+ *     java app.ExpressionBench jit [rounds]
+ *     java app.ExpressionBench symbols [symbols]
+ *     java app.ExpressionBench scaling [tokens]
+ *     java app.ExpressionBench alloc [evaluations]
+ * </pre>
+ *
+ */
+public class ExpressionBench {
+
+	/**
+	 * Expressions benchmarked, with values from the etest files.
+	 */
+	static final String[] EXPRESSIONS = {
+		"a-(b+A[B[2]])*d+3",
+		"A[a-1]*B[2] - a/b",
+		"varx + vary*varx - (p*x - y/z)*-a",
+		"(x+y)*(x-y)/(z-(p*2)) - C[4]/D[5]",
+		"-(a+b)*(d-(x*y))/(z+p) + A[4]*B[2] - 3.5*(d - b)",
+	};
+
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 1) {
+			System.out.println("usage: java app.ExpressionBench compile|batch|jit|symbols|scaling|alloc [rounds|rows|symbols|tokens|evaluations]");
+			return;
+		}
+		String bench = args[0];
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		if (bench.equals("compile")) {
+			compile(rounds);
+		} else if (bench.equals("batch")) {
+			batch(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+		} else if (bench.equals("jit")) {
+			jit(rounds);
+		} else if (bench.equals("symbols")) {
+			symbols(args.length > 1 ? Integer.parseInt(args[1]) : 16000);
+		} else if (bench.equals("scaling")) {
+			scaling(args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+		} else if (bench.equals("alloc")) {
+			alloc(args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+		} else {
+			System.out.println("unknown benchmark " + bench);
+		}
+	}
+
+	/**
+	 * Compares Expression.evaluate with CompiledExpression, both with the variable lists and
+	 * with values by slot, in ns per evaluation, after checking they agree.
+	 */
+	static void compile(int rounds)
+	throws IOException {
+		for (String expr : EXPRESSIONS) {
+			ArrayList<Variable> vars = new ArrayList<Variable>();
+			ArrayList<Array> arrays = new ArrayList<Array>();
+			loadValues(expr, vars, arrays);
+			CompiledExpression compiled = Expression.compile(expr);
+			int[] values = new int[compiled.variableNames().size()];
+			for (int slot = 0; slot < values.length; slot++) {
+				values[slot] = vars.get(vars.indexOf(new Variable(compiled.variableNames().get(slot)))).value;
+			}
+			int[][] arrayValues = new int[compiled.arrayNames().size()][];
+			for (int slot = 0; slot < arrayValues.length; slot++) {
+				arrayValues[slot] = arrays.get(arrays.indexOf(new Array(compiled.arrayNames().get(slot)))).values;
+			}
+			float expected = Expression.evaluate(expr, vars, arrays);
+			if (Float.compare(expected, compiled.evaluate(vars, arrays)) != 0
+					|| Float.compare(expected, compiled.evaluate(values, arrayValues)) != 0) {
+				System.out.println("MISMATCH " + expr + ": " + expected + " " + compiled.evaluate(values, arrayValues));
+			}
+			System.out.println(expr + " = " + expected);
+			for (int r = 0; r < rounds; r++) {
+				float sum = 0;
+				int n = 20000;
+				long start = System.nanoTime();
+				for (int i = 0; i < n; i++) {
+					sum += Expression.evaluate(expr, vars, arrays);
+				}
+				long strings = System.nanoTime() - start;
+				int m = n * 50;
+				start = System.nanoTime();
+				for (int i = 0; i < m; i++) {
+					sum += compiled.evaluate(vars, arrays);
+				}
+				long lists = System.nanoTime() - start;
+				start = System.nanoTime();
+				for (int i = 0; i < m; i++) {
+					sum += compiled.evaluate(values, arrayValues);
+				}
+				long slots = System.nanoTime() - start;
+				System.out.printf("  evaluate %10.1f ns   compiled, lists %8.1f ns   compiled, slots %6.1f ns   (%s)%n",
+						strings / (double)n, lists / (double)m, slots / (double)m, sum == 0 ? "" : "ok");
+			}
+		}
+	}
+
+	/**
+	 * Evaluates each expression for the given number of rows of random variable values (1 to
+	 * 4, so every subscript is in bounds), and compares rows per second of Expression.evaluate
+	 * with a new variable list per row (on the first 2000 rows), CompiledExpression.evaluate
+	 * per row, and CompiledExpression.evaluateColumns, after checking that all agree.
+	 */
+	static void batch(int rows)
+	throws IOException {
+		Random random = new Random(1);
+		for (String expr : EXPRESSIONS) {
+			ArrayList<Variable> vars = new ArrayList<Variable>();
+			ArrayList<Array> arrays = new ArrayList<Array>();
+			loadValues(expr, vars, arrays);
+			CompiledExpression compiled = Expression.compile(expr);
+			int[][] columns = new int[compiled.variableNames().size()][rows];
+			for (int[] column : columns) {
+				for (int i = 0; i < rows; i++) {
+					column[i] = 1 + random.nextInt(4);
+				}
+			}
+			int[][] arrayValues = new int[compiled.arrayNames().size()][];
+			for (int slot = 0; slot < arrayValues.length; slot++) {
+				arrayValues[slot] = arrays.get(arrays.indexOf(new Array(compiled.arrayNames().get(slot)))).values;
+			}
+			System.out.println(expr);
+
+			int sample = Math.min(rows, 2000);
+			float[] expected = new float[sample];
+			long start = System.nanoTime();
+			for (int i = 0; i < sample; i++) {
+				ArrayList<Variable> row = new ArrayList<Variable>();
+				for (int slot = 0; slot < columns.length; slot++) {
+					Variable v = new Variable(compiled.variableNames().get(slot));
+					v.value = columns[slot][i];
+					row.add(v);
+				}
+				expected[i] = Expression.evaluate(expr, row, arrays);
+			}
+			long strings = System.nanoTime() - start;
+
+			float[] results = new float[rows];
+			int[] values = new int[columns.length];
+			long perRow = 0, batch = 0;
+			for (int r = 0; r < 5; r++) {
+				start = System.nanoTime();
+				for (int i = 0; i < rows; i++) {
+					for (int slot = 0; slot < values.length; slot++) {
+						values[slot] = columns[slot][i];
+					}
+					results[i] = compiled.evaluate(values, arrayValues);
+				}
+				perRow = System.nanoTime() - start;
+				for (int i = 0; i < sample; i++) {
+					if (Float.compare(results[i], expected[i]) != 0) {
+						System.out.println("MISMATCH row " + i + ": " + expected[i] + " " + results[i]);
+						break;
+					}
+				}
+				float[] rowResults = results.clone();
+				start = System.nanoTime();
+				compiled.evaluateColumns(columns, arrayValues, results);
+				batch = System.nanoTime() - start;
+				if (!Arrays.equals(rowResults, results)) {
+					System.out.println("MISMATCH between evaluate and evaluateColumns");
+				}
+			}
+			System.out.printf("  evaluate %12.0f rows/sec   compiled, per row %12.0f rows/sec   compiled, columns %12.0f rows/sec%n",
+					sample / (strings / 1e9), rows / (perRow / 1e9), rows / (batch / 1e9));
+		}
+	}
+
+	/**
+	 * Compares CompiledExpression.evaluate, which interprets its program, with the generated code of
+	 * JitExpression, in ns per evaluation, for the benchmark expressions and a long generated
+	 * one, after checking they agree on 10000 rows of random values (1 to 4). Also reports the
+	 * time to generate and load each class, and to get it again from the cache.
+	 */
+	static void jit(int rounds)
+	throws IOException {
+		StringBuilder sum = new StringBuilder("a");
+		for (int i = 1; i < 200; i++) {
+			sum.append(i % 3 == 0 ? " - " : " + ").append("A[b+").append(i % 4).append("]*c/d");
+		}
+		ArrayList<String> exprs = new ArrayList<String>(Arrays.asList(EXPRESSIONS));
+		exprs.add(sum.toString());
+		Random random = new Random(1);
+		for (String expr : exprs) {
+			CompiledExpression compiled = Expression.compile(expr);
+			long start = System.nanoTime();
+			JitExpression jit = compiled.jit();
+			long generate = System.nanoTime() - start;
+			start = System.nanoTime();
+			JitExpression again = JitExpression.of(expr);
+			long cached = System.nanoTime() - start;
+			if (again != jit) {
+				System.out.println("NOT CACHED " + expr);
+			}
+
+			int[][] arrayValues = new int[compiled.arrayNames().size()][10];
+			for (int[] values : arrayValues) {
+				for (int i = 0; i < values.length; i++) {
+					values[i] = 1 + random.nextInt(9);
+				}
+			}
+			int[][] rows = new int[10000][compiled.variableNames().size()];
+			for (int[] values : rows) {
+				for (int slot = 0; slot < values.length; slot++) {
+					values[slot] = 1 + random.nextInt(4);
+				}
+			}
+			for (int[] values : rows) {
+				float expected = compiled.evaluate(values, arrayValues);
+				if (Float.compare(expected, jit.evaluate(values, arrayValues)) != 0) {
+					System.out.println("MISMATCH " + expr + ": " + expected + " " + jit.evaluate(values, arrayValues));
+					break;
+				}
+			}
+			System.out.printf("%s%n  generated in %.0f us, from cache in %.0f ns%n",
+					expr.length() > 60 ? expr.substring(0, 57) + "..." : expr, generate / 1e3, (double)cached);
+			for (int r = 0; r < rounds; r++) {
+				float total = 0;
+				int n = 200;
+				start = System.nanoTime();
+				for (int k = 0; k < n; k++) {
+					for (int[] values : rows) {
+						total += compiled.evaluate(values, arrayValues);
+					}
+				}
+				long interpreted = System.nanoTime() - start;
+				start = System.nanoTime();
+				for (int k = 0; k < n; k++) {
+					for (int[] values : rows) {
+						total += jit.evaluate(values, arrayValues);
+					}
+				}
+				long code = System.nanoTime() - start;
+				double evals = n * (double)rows.length;
+				System.out.printf("  interpreted %8.1f ns   jit %8.1f ns   (%s)%n",
+						interpreted / evals, code / evals, total == 0 ? "" : "ok");
+			}
+		}
+	}
+
+	/**
+	 * Times the symbol handling of an expression with many symbols, for 1/16, 1/4 and all of
+	 * the given number of simple variables, and as many arrays: makeVariableLists on an
+	 * expression using each twice, loadVariableValues, CompiledExpression.compile, and
+	 * CompiledExpression.evaluate with the lists. For comparison, it also times finding every
+	 * variable with indexOf, as these did before the symbol table, which grows as the square.
+	 */
+	static void symbols(int symbols)
+	throws IOException {
+		for (int n = symbols / 16; n <= symbols; n *= 4) {
+			String[] names = new String[n];
+			for (int i = 0; i < n; i++) {
+				StringBuilder name = new StringBuilder();
+				for (int k = i; ; k /= 26) {
+					name.append((char)('a' + k % 26));
+					if (k < 26) {
+						break;
+					}
+				}
+				names[i] = name.toString();
+			}
+			StringBuilder expr = new StringBuilder("0");
+			StringBuilder values = new StringBuilder();
+			for (int i = 0; i < n; i++) {
+				String array = names[i].toUpperCase();
+				expr.append(" + ").append(names[i]).append("*").append(array).append("[1]");
+				expr.append(" - ").append(array).append("[").append(names[i]).append("]");
+				values.append(names[i]).append(" 1\n");
+				values.append(array).append(" 2 (0,").append(i).append(") (1,").append(i).append(")\n");
+			}
+
+			long start = System.nanoTime();
+			ArrayList<Variable> vars = new ArrayList<Variable>();
+			ArrayList<Array> arrays = new ArrayList<Array>();
+			Expression.makeVariableLists(expr.toString(), vars, arrays);
+			long make = System.nanoTime() - start;
+			start = System.nanoTime();
+			Expression.loadVariableValues(new Scanner(values.toString()), vars, arrays);
+			long load = System.nanoTime() - start;
+			start = System.nanoTime();
+			CompiledExpression compiled = Expression.compile(expr.toString());
+			long compile = System.nanoTime() - start;
+			start = System.nanoTime();
+			float result = compiled.evaluate(vars, arrays);
+			long evaluate = System.nanoTime() - start;
+			start = System.nanoTime();
+			int found = 0;
+			for (String name : names) {
+				found += vars.indexOf(new Variable(name)) >= 0 ? 1 : 0;
+			}
+			long indexOf = System.nanoTime() - start;
+			if (vars.size() != n || arrays.size() != n || found != n || result != 0) {
+				System.out.println("WRONG: " + vars.size() + " variables, " + arrays.size() + " arrays, result " + result);
+			}
+			System.out.printf("%6d symbols   make lists %7.1f ms   load %7.1f ms   compile %7.1f ms   evaluate %7.1f ms   (indexOf %8.1f ms)%n",
+					2 * n, make / 1e6, load / 1e6, compile / 1e6, evaluate / 1e6, indexOf / 1e6);
+		}
+	}
+
+	/**
+	 * Parts of the random expressions of the scaling benchmark, with subscripts in bounds for
+	 * the values of the etest files.
+	 */
+	static final String[] FRAGMENTS = {
+		"a", "d", "x", "3", "2.5", "-y", "(x-z)", "A[b]", "A[B[2]*4]", "D[p*2+1]",
+		"-(p*x - y/z)", "C[a+1]", "((a+(b*(x-y)))/z)", "arrayA[arrayA[9]*(a+b)]",
+	};
+
+	/**
+	 * Returns a random expression of about the given number of tokens, made of fragments
+	 * joined by random operators.
+	 */
+	static String randomExpression(int tokens, Random random) {
+		StringBuilder expr = new StringBuilder();
+		int count = 0;
+		while (count < tokens) {
+			if (count > 0) {
+				expr.append(" ").append("+-*/".charAt(random.nextInt(4))).append(" ");
+				count++;
+			}
+			String fragment = FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+			expr.append(fragment);
+			count += new StringTokenizer(fragment, " +-*/()[]", true).countTokens();
+		}
+		return expr.toString();
+	}
+
+	/**
+	 * Times Expression.evaluate on random expressions of 10 to the given number of tokens,
+	 * ten times as many each step, in ns per token, which stays about the same as expressions
+	 * grow if evaluate takes linear time. Each result is checked against CompiledExpression.
+	 */
+	static void scaling(int maxTokens)
+	throws IOException {
+		Random random = new Random(1);
+		ArrayList<Variable> vars = new ArrayList<Variable>();
+		ArrayList<Array> arrays = new ArrayList<Array>();
+		StringBuilder all = new StringBuilder();
+		for (String fragment : FRAGMENTS) {
+			all.append(fragment).append("+");
+		}
+		loadValues(all.append("0").toString(), vars, arrays);
+		for (int tokens = 10; tokens <= maxTokens; tokens *= 10) {
+			String expr = randomExpression(tokens, random);
+			float expected = Expression.compile(expr).evaluate(vars, arrays);
+			float result = Expression.evaluate(expr, vars, arrays);
+			if (Float.compare(expected, result) != 0) {
+				System.out.println("MISMATCH " + expected + " " + result);
+			}
+			int n = Math.max(5, 2000000 / tokens);
+			long best = Long.MAX_VALUE;
+			for (int r = 0; r < 5; r++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < n; i++) {
+					result += Expression.evaluate(expr, vars, arrays);
+				}
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.printf("%7d tokens   %12.0f ns per evaluation   %6.1f ns per token   (%s)%n",
+					tokens, best / (double)n, best / (double)n / tokens, result == 0 ? "" : "ok");
+		}
+	}
+
+	/**
+	 * Measures the bytes allocated per evaluation, by the thread allocation counter of the
+	 * JVM, for Expression.evaluate (which makes a symbol table and stacks each call), a reused
+	 * StackEvaluator, CompiledExpression.evaluate with values by slot, and JitExpression,
+	 * after warming each up. In steady state the last three should allocate nothing.
+	 */
+	static void alloc(int evaluations)
+	throws IOException {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			System.out.println("this JVM does not count allocated bytes");
+			return;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+		long thread = Thread.currentThread().getId();
+		long overhead = threads.getThreadAllocatedBytes(thread);
+		overhead = threads.getThreadAllocatedBytes(thread) - overhead;
+		for (String expr : EXPRESSIONS) {
+			ArrayList<Variable> vars = new ArrayList<Variable>();
+			ArrayList<Array> arrays = new ArrayList<Array>();
+			loadValues(expr, vars, arrays);
+			StackEvaluator evaluator = new StackEvaluator(vars, arrays);
+			CompiledExpression compiled = Expression.compile(expr);
+			JitExpression jit = compiled.jit();
+			int[] values = new int[compiled.variableNames().size()];
+			for (int slot = 0; slot < values.length; slot++) {
+				values[slot] = vars.get(vars.indexOf(new Variable(compiled.variableNames().get(slot)))).value;
+			}
+			int[][] arrayValues = new int[compiled.arrayNames().size()][];
+			for (int slot = 0; slot < arrayValues.length; slot++) {
+				arrayValues[slot] = arrays.get(arrays.indexOf(new Array(compiled.arrayNames().get(slot)))).values;
+			}
+			float expected = Expression.evaluate(expr, vars, arrays);
+			if (Float.compare(expected, evaluator.evaluate(expr)) != 0) {
+				System.out.println("MISMATCH " + expr + ": " + expected + " " + evaluator.evaluate(expr));
+			}
+
+			double[] bytes = new double[4];
+			float sum = 0;
+			for (int round = 0; round < 2; round++) {
+				// the first round warms up; the second is measured
+				for (int kind = 0; kind < bytes.length; kind++) {
+					long before = threads.getThreadAllocatedBytes(thread);
+					for (int i = 0; i < evaluations; i++) {
+						switch (kind) {
+						case 0: sum += Expression.evaluate(expr, vars, arrays); break;
+						case 1: sum += evaluator.evaluate(expr); break;
+						case 2: sum += compiled.evaluate(values, arrayValues); break;
+						default: sum += jit.evaluate(values, arrayValues); break;
+						}
+					}
+					long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+					bytes[kind] = Math.max(allocated, 0) / (double)evaluations;
+				}
+			}
+			System.out.println(expr);
+			System.out.printf("  bytes per evaluation: evaluate %8.1f   stack evaluator %6.3f   compiled %6.3f   jit %6.3f   (%s)%n",
+					bytes[0], bytes[1], bytes[2], bytes[3], sum == 0 ? "" : "ok");
+		}
+	}
+
+	/**
+	 * Makes the variable lists of an expression, and loads their values from the etest files.
+	 */
+	static void loadValues(String expr, ArrayList<Variable> vars, ArrayList<Array> arrays)
+	throws IOException {
+		Expression.makeVariableLists(expr, vars, arrays);
+		for (String file : new String[] { "etest1.txt", "etest2.txt", "etest3.txt" }) {
+			Scanner sc = new Scanner(new File(file));
+			Expression.loadVariableValues(sc, vars, arrays);
+			sc.close();
+		}
+	}
+}
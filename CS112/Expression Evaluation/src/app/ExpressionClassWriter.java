@@ -0,0 +1,359 @@
+package app;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes the class file of a JitExpression subclass for a compiled expression. The class has
+ * a constructor and an evaluate(int[], int[][]) method, whose code first loads the value of
+ * every simple variable, as a float, and every array into local variables, and then works
+ * out the expression in one straight line of float instructions, one or a few for each
+ * instruction of the program of the compiled expression, in the same order. The program is
+ * in postfix order, as JVM code is, so it is translated in a loop, however long it is. There
+ * are no branches, so the class needs no stack map frames.
+ *
+ * Class files are described in chapter 4 of the Java Virtual Machine Specification; only the
+ * few parts needed here are written.
+ *
+ */
+class ExpressionClassWriter {
+
+	/**
+	 * Class file version of Java 8.
+	 */
+	static final int MAJOR_VERSION = 52;
+
+	/**
+	 * Longest code of a method; also the most constants, locals and stack words.
+	 */
+	static final int MAX_CODE = 65535;
+
+	// constant pool tags
+	private static final int UTF8 = 1, FLOAT = 4, CLASS = 7, METHOD_REF = 10, NAME_AND_TYPE = 12;
+
+	// access flags
+	private static final int ACC_PUBLIC = 0x0001, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+	// instructions
+	private static final int FCONST_0 = 0x0b, FCONST_1 = 0x0c, FCONST_2 = 0x0d, ICONST_0 = 0x03,
+			BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13, FLOAD = 0x17, ALOAD = 0x19,
+			ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c, IALOAD = 0x2e, AALOAD = 0x32,
+			FSTORE = 0x38, ASTORE = 0x3a, SWAP = 0x5f, FADD = 0x62, FSUB = 0x66, FMUL = 0x6a, FDIV = 0x6e,
+			FNEG = 0x76, I2F = 0x86, F2D = 0x8d, D2I = 0x8e, FRETURN = 0xae, RETURN = 0xb1,
+			INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, WIDE = 0xc4;
+
+	/**
+	 * First local variable of the simple variables; 0 is this, 1 and 2 the parameters.
+	 */
+	private static final int FIRST_LOCAL = 3;
+
+	private final String name;
+	private final CompiledExpression expr;
+
+	/**
+	 * Constant pool entries, written as they are added, and their indexes by contents.
+	 */
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private final HashMap<String,Integer> poolIndex = new HashMap<String,Integer>();
+	private int poolCount = 1;
+
+	/**
+	 * Code of the method being written, and its operand stack depth, in words, as it goes.
+	 */
+	private ByteArrayOutputStream code;
+	private int stack, maxStack;
+
+	/**
+	 * Index of the Math.floor method reference.
+	 */
+	private int floor;
+
+	/**
+	 * Initializes a writer for an expression.
+	 *
+	 * @param name Binary name of the class, such as app.GeneratedExpression0
+	 * @param expr The expression
+	 */
+	ExpressionClassWriter(String name, CompiledExpression expr) {
+		this.name = name.replace('.', '/');
+		this.expr = expr;
+	}
+
+	/**
+	 * Writes the class file.
+	 *
+	 * @return Contents of the class file, or null if the code of the expression is too long for a method
+	 */
+	byte[] toByteArray() {
+		try {
+			int thisClass = classRef(name);
+			int superClass = classRef("app/JitExpression");
+			int init = utf8("<init>"), voidType = utf8("()V");
+			int superInit = methodRef("app/JitExpression", "<init>", "()V");
+			int evaluate = utf8("evaluate"), evaluateType = utf8("([I[[I)F");
+			int codeName = utf8("Code");
+			floor = methodRef("java/lang/Math", "floor", "(D)D");
+
+			byte[] initCode = constructorCode(superInit);
+			int initStack = maxStack;
+			byte[] evaluateCode = evaluateCode();
+			int evaluateStack = maxStack;
+			int evaluateLocals = FIRST_LOCAL + expr.variableNames.size() + expr.arrayNames.size();
+			if (evaluateCode == null || poolCount > MAX_CODE || evaluateStack > MAX_CODE || evaluateLocals > MAX_CODE) {
+				return null;
+			}
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(MAJOR_VERSION);
+			out.writeShort(poolCount);
+			poolBytes.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+			out.writeShort(2); // methods
+			writeMethod(out, init, voidType, codeName, initStack, 1, initCode);
+			writeMethod(out, evaluate, evaluateType, codeName, evaluateStack, evaluateLocals, evaluateCode);
+			out.writeShort(0); // attributes
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// a ByteArrayOutputStream does not throw
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void writeMethod(DataOutputStream out, int name, int type, int codeName,
+			int maxStack, int maxLocals, byte[] code)
+	throws IOException {
+		out.writeShort(ACC_PUBLIC);
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1); // attributes
+		out.writeShort(codeName);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+	}
+
+	private byte[] constructorCode(int superInit) {
+		begin();
+		op(ALOAD_0, 1);
+		op(INVOKESPECIAL, -1);
+		u2(superInit);
+		op(RETURN, 0);
+		return code.toByteArray();
+	}
+
+	/**
+	 * Writes the code of evaluate: loads of the variables and arrays, then the expression.
+	 */
+	private byte[] evaluateCode() {
+		begin();
+		int variables = expr.variableNames.size();
+		for (int slot = 0; slot < variables; slot++) {
+			op(ALOAD_1, 1);
+			pushInt(slot);
+			op(IALOAD, -1);
+			op(I2F, 0);
+			local(FSTORE, FIRST_LOCAL + slot, -1);
+		}
+		for (int slot = 0; slot < expr.arrayNames.size(); slot++) {
+			op(ALOAD_2, 1);
+			pushInt(slot);
+			op(AALOAD, -1);
+			local(ASTORE, FIRST_LOCAL + variables + slot, -1);
+		}
+		program();
+		op(FRETURN, -1);
+		return code.size() > MAX_CODE ? null : code.toByteArray();
+	}
+
+	/**
+	 * Writes the code of the program of the expression, which leaves its value on the stack.
+	 */
+	private void program() {
+		int arrays = FIRST_LOCAL + expr.variableNames.size();
+		for (int pc = 0; pc < expr.ops.length; pc++) {
+			int arg = expr.args[pc];
+			switch (expr.ops[pc]) {
+			case CompiledExpression.CONSTANT:
+				pushFloat(Float.intBitsToFloat(arg));
+				break;
+			case CompiledExpression.SCALAR:
+				local(FLOAD, FIRST_LOCAL + arg, 1);
+				break;
+			case CompiledExpression.ELEMENT:
+				// the subscript is on the stack: floor it, then put the array under it
+				op(F2D, 1);
+				op(INVOKESTATIC, 0);
+				u2(floor);
+				op(D2I, -1);
+				local(ALOAD, arrays + arg, 1);
+				op(SWAP, 0);
+				op(IALOAD, -1);
+				op(I2F, 0);
+				break;
+			case CompiledExpression.NEGATE:
+				op(FNEG, 0);
+				break;
+			case CompiledExpression.ADD:
+				op(FADD, -1);
+				break;
+			case CompiledExpression.SUBTRACT:
+				op(FSUB, -1);
+				break;
+			case CompiledExpression.MULTIPLY:
+				op(FMUL, -1);
+				break;
+			default:
+				op(FDIV, -1);
+				break;
+			}
+		}
+	}
+
+	private void begin() {
+		code = new ByteArrayOutputStream();
+		stack = maxStack = 0;
+	}
+
+	/**
+	 * Writes an instruction that changes the stack depth by the given number of words.
+	 */
+	private void op(int opcode, int change) {
+		code.write(opcode);
+		stack += change;
+		maxStack = Math.max(maxStack, stack);
+	}
+
+	private void u2(int value) {
+		code.write(value >> 8);
+		code.write(value);
+	}
+
+	/**
+	 * Writes a load or store of a local variable, wide if its index is over 255.
+	 */
+	private void local(int opcode, int index, int change) {
+		if (index > 255) {
+			code.write(WIDE);
+			op(opcode, change);
+			u2(index);
+		} else {
+			op(opcode, change);
+			code.write(index);
+		}
+	}
+
+	private void pushInt(int value) {
+		if (value <= 5) {
+			op(ICONST_0 + value, 1);
+		} else if (value <= Byte.MAX_VALUE) {
+			op(BIPUSH, 1);
+			code.write(value);
+		} else if (value <= Short.MAX_VALUE) {
+			op(SIPUSH, 1);
+			u2(value);
+		} else {
+			ldc(poolEntry("I" + value, 3, value));
+		}
+	}
+
+	private void pushFloat(float value) {
+		int bits = Float.floatToIntBits(value);
+		if (bits == 0) {
+			op(FCONST_0, 1);
+		} else if (value == 1) {
+			op(FCONST_1, 1);
+		} else if (value == 2) {
+			op(FCONST_2, 1);
+		} else {
+			ldc(poolEntry("F" + bits, FLOAT, bits));
+		}
+	}
+
+	private void ldc(int index) {
+		if (index > 255) {
+			op(LDC_W, 1);
+			u2(index);
+		} else {
+			op(LDC, 1);
+			code.write(index);
+		}
+	}
+
+	/**
+	 * Returns the constant pool index of a 4 byte constant (tag 3 for int, 4 for float),
+	 * adding it if it is new.
+	 */
+	private int poolEntry(String key, int tag, int bits) {
+		Integer index = poolIndex.get(key);
+		if (index == null) {
+			try {
+				pool.writeByte(tag);
+				pool.writeInt(bits);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			index = poolCount++;
+			poolIndex.put(key, index);
+		}
+		return index;
+	}
+
+	private int utf8(String s) {
+		Integer index = poolIndex.get("U" + s);
+		if (index == null) {
+			try {
+				pool.writeByte(UTF8);
+				pool.writeUTF(s);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			index = poolCount++;
+			poolIndex.put("U" + s, index);
+		}
+		return index;
+	}
+
+	private int classRef(String internalName) {
+		return reference("C" + internalName, CLASS, utf8(internalName), -1);
+	}
+
+	private int methodRef(String owner, String method, String type) {
+		int c = classRef(owner);
+		int nameAndType = reference("N" + method + type, NAME_AND_TYPE, utf8(method), utf8(type));
+		return reference("M" + owner + "." + method + type, METHOD_REF, c, nameAndType);
+	}
+
+	/**
+	 * Returns the constant pool index of an entry made of one or two other indexes, adding it
+	 * if it is new.
+	 */
+	private int reference(String key, int tag, int first, int second) {
+		Integer index = poolIndex.get(key);
+		if (index == null) {
+			try {
+				pool.writeByte(tag);
+				pool.writeShort(first);
+				if (second >= 0) {
+					pool.writeShort(second);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			index = poolCount++;
+			poolIndex.put(key, index);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,195 @@
+package app;
+
+import java.util.*;
+
+/**
+ * A compiled expression turned into JVM bytecode: a class of its own whose evaluate method
+ * does the arithmetic of the expression in straight-line code, which the JIT compiler can
+ * then inline and optimize like hand-written Java. See ExpressionClassWriter for the code.
+ *
+ * Classes are cached by expression text, so getting the same expression again costs a hash
+ * lookup. Each class has its own class loader, so that a class dropped from the cache can
+ * be unloaded. Expressions too big for one method are interpreted instead.
+ *
+ */
+public abstract class JitExpression {
+
+	/**
+	 * Most classes kept in the cache.
+	 */
+	static final int CACHE_SIZE = 1024;
+
+	private static final LinkedHashMap<String,JitExpression> cache =
+			new LinkedHashMap<String,JitExpression>(16, 0.75f, true) {
+				protected boolean removeEldestEntry(Map.Entry<String,JitExpression> eldest) {
+					return size() > CACHE_SIZE;
+				}
+			};
+
+	private static int generated;
+
+	/**
+	 * The expression this was made from; set once the instance is made.
+	 */
+	private CompiledExpression source;
+
+	/**
+	 * Only subclasses, generated or not, make instances.
+	 */
+	protected JitExpression() {
+	}
+
+	/**
+	 * Returns the bytecode version of an expression, from the cache if it was made before.
+	 *
+	 * @param expr Compiled expression
+	 * @return Bytecode version, or an interpreting one if the expression is too big for one method
+	 */
+	public static JitExpression of(CompiledExpression expr) {
+		synchronized (cache) {
+			JitExpression jit = cache.get(expr.text);
+			if (jit != null) {
+				return jit;
+			}
+		}
+		JitExpression jit = generate(expr);
+		synchronized (cache) {
+			JitExpression other = cache.get(expr.text);
+			if (other != null) {
+				return other;
+			}
+			cache.put(expr.text, jit);
+			return jit;
+		}
+	}
+
+	/**
+	 * Same as of(CompiledExpression), for expression text.
+	 *
+	 * @param expr The expression
+	 * @return Bytecode version
+	 * @throws IllegalArgumentException If the expression is not well formed
+	 */
+	public static JitExpression of(String expr) {
+		synchronized (cache) {
+			JitExpression jit = cache.get(expr);
+			if (jit != null) {
+				return jit;
+			}
+		}
+		return of(CompiledExpression.compile(expr));
+	}
+
+	private static JitExpression generate(CompiledExpression expr) {
+		String name;
+		synchronized (cache) {
+			name = "app.GeneratedExpression" + generated++;
+		}
+		byte[] classFile = new ExpressionClassWriter(name, expr).toByteArray();
+		JitExpression jit;
+		if (classFile == null) {
+			jit = new Interpreted(expr);
+		} else {
+			try {
+				Class<?> c = new Loader(JitExpression.class.getClassLoader()).define(name, classFile);
+				jit = (JitExpression)c.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("cannot load code of " + expr.text, e);
+			}
+		}
+		jit.source = expr;
+		return jit;
+	}
+
+	/**
+	 * Loads one generated class.
+	 */
+	private static class Loader extends ClassLoader {
+		Loader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] classFile) {
+			return defineClass(name, classFile, 0, classFile.length);
+		}
+	}
+
+	/**
+	 * Interprets the program, for expressions too big for generated code.
+	 */
+	static final class Interpreted extends JitExpression {
+		private final CompiledExpression expr;
+
+		Interpreted(CompiledExpression expr) {
+			this.expr = expr;
+		}
+
+		public float evaluate(int[] values, int[][] arrays) {
+			return expr.evaluate(values, arrays);
+		}
+	}
+
+	/**
+	 * Evaluates the expression; the same as CompiledExpression.evaluate(int[], int[][]).
+	 *
+	 * @param values Values of the simple variables, by slot (see variableNames)
+	 * @param arrays Values of the arrays, by slot (see arrayNames)
+	 * @return Result of evaluation
+	 * @throws ArrayIndexOutOfBoundsException If an array subscript is out of bounds
+	 */
+	public abstract float evaluate(int[] values, int[][] arrays);
+
+	/**
+	 * Returns the compiled expression this was made from.
+	 *
+	 * @return Compiled expression
+	 */
+	public CompiledExpression source() {
+		return source;
+	}
+
+	/**
+	 * Returns the names of the simple variables, by slot.
+	 *
+	 * @return Variable names
+	 */
+	public List<String> variableNames() {
+		return source.variableNames();
+	}
+
+	/**
+	 * Returns the names of the arrays, by slot.
+	 *
+	 * @return Array names
+	 */
+	public List<String> arrayNames() {
+		return source.arrayNames();
+	}
+
+	/**
+	 * Tells if the expression runs as generated code, not interpreted.
+	 *
+	 * @return True if generated
+	 */
+	public boolean isGenerated() {
+		return !(this instanceof Interpreted);
+	}
+
+	/**
+	 * Returns the number of classes in the cache.
+	 *
+	 * @return Cached classes
+	 */
+	public static int cached() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return source.text;
+	}
+}
@@ -0,0 +1,216 @@
+package app;
+
+import java.util.*;
+
+import structures.FloatStack;
+import structures.IntStack;
+
+/**
+ * Evaluates expressions in one pass, left to right, by shunting-yard: operands go on the
+ * values stack, and an operator waits on the operators stack until one of lower precedence,
+ * or a closing bracket, comes after it. '~' stands for unary minus, which binds tighter than
+ * * and /. An open bracket marks its place on the operators stack, and the slot of the array
+ * of a subscript waits on the subscripted stack until its ']'.
+ *
+ * The stacks hold primitive values and are kept from one evaluation to the next, names are
+ * looked up in place in the expression, and numbers are parsed without making strings, so
+ * once the stacks have grown to fit, an evaluation allocates nothing. Values are read from
+ * the variables and arrays when evaluate is called, so they may change between calls.
+ *
+ * An evaluator is not thread safe; each thread needs its own.
+ *
+ */
+public class StackEvaluator {
+
+	/**
+	 * Exact powers of ten, for numbers with up to 10 digits after the point.
+	 */
+	private static final float[] POWERS_OF_TEN = {
+		1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+	};
+
+	private final SymbolTable symbols;
+	private final FloatStack values = new FloatStack();
+	private final IntStack operators = new IntStack();
+	private final IntStack subscripted = new IntStack();
+
+	/**
+	 * Initializes an evaluator with the values of the given lists.
+	 *
+	 * @param vars The variables array list
+	 * @param arrays The arrays array list
+	 */
+	public StackEvaluator(ArrayList<Variable> vars, ArrayList<Array> arrays) {
+		this(new SymbolTable(vars, arrays));
+	}
+
+	/**
+	 * Initializes an evaluator with the values of the variables and arrays of a symbol table.
+	 *
+	 * @param symbols The symbol table
+	 */
+	public StackEvaluator(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Evaluates an expression.
+	 *
+	 * @param expr The expression
+	 * @return Result of evaluation
+	 * @throws IllegalArgumentException If the expression is not well formed, or has a variable not in the table
+	 */
+	public float evaluate(String expr) {
+		values.clear();
+		operators.clear();
+		subscripted.clear();
+		boolean operand = true; // an operand comes next, so a '-' is unary
+		int i = 0;
+		while (i < expr.length()) {
+			char c = expr.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+				continue;
+			}
+			// an operand and an operator take turns: a number, name or '(' comes where an
+			// operand is expected, a binary operator or closing bracket where one is not
+			boolean startsOperand = Character.isLetterOrDigit(c) || c == '.' || c == '(';
+			if (startsOperand != operand && !(c == '-' && operand)) {
+				throw new IllegalArgumentException("unexpected '" + c + "' at " + i + " in " + expr);
+			}
+			if (Character.isDigit(c) || c == '.') {
+				i = number(expr, i);
+				operand = false;
+			} else if (Character.isLetter(c)) {
+				int start = i;
+				while (i < expr.length() && Character.isLetter(expr.charAt(i))) {
+					i++;
+				}
+				int end = i;
+				while (i < expr.length() && Character.isWhitespace(expr.charAt(i))) {
+					i++;
+				}
+				if (i < expr.length() && expr.charAt(i) == '[') {
+					int slot = symbols.arraySlot(expr, start, end);
+					if (slot < 0) {
+						throw new IllegalArgumentException("no values for " + expr.substring(start, end));
+					}
+					subscripted.push(slot);
+					operators.push('[');
+					i++;
+					operand = true;
+				} else {
+					int slot = symbols.variableSlot(expr, start, end);
+					if (slot < 0) {
+						throw new IllegalArgumentException("no value for " + expr.substring(start, end));
+					}
+					values.push(symbols.variables().get(slot).value);
+					operand = false;
+				}
+			} else if (c == '(') {
+				operators.push('(');
+				i++;
+				operand = true;
+			} else if (c == ')' || c == ']') {
+				while (!operators.isEmpty() && operators.peek() != '(' && operators.peek() != '[') {
+					apply(operators.pop(), expr);
+				}
+				if (operators.isEmpty() || operators.pop() != (c == ')' ? '(' : '[')) {
+					throw new IllegalArgumentException("unmatched '" + c + "' at " + i + " in " + expr);
+				}
+				if (c == ']') {
+					if (values.isEmpty()) {
+						throw new IllegalArgumentException("empty subscript at " + i + " in " + expr);
+					}
+					int index = (int)Math.floor(values.pop());
+					values.push(symbols.arrays().get(subscripted.pop()).values[index]);
+				}
+				i++;
+				operand = false;
+			} else if (c == '-' && operand) {
+				operators.push('~');
+				i++;
+			} else if (c == '+' || c == '-' || c == '*' || c == '/') {
+				while (!operators.isEmpty() && precedence(operators.peek()) >= precedence(c)) {
+					apply(operators.pop(), expr);
+				}
+				operators.push(c);
+				i++;
+				operand = true;
+			} else {
+				throw new IllegalArgumentException("unexpected '" + c + "' at " + i + " in " + expr);
+			}
+		}
+		while (!operators.isEmpty()) {
+			int op = operators.pop();
+			if (op == '(' || op == '[') {
+				throw new IllegalArgumentException("unmatched '" + (char)op + "' in " + expr);
+			}
+			apply(op, expr);
+		}
+		if (operand || values.size() != 1) {
+			throw new IllegalArgumentException("not well formed: " + expr);
+		}
+		return values.pop();
+	}
+
+	/**
+	 * Pushes the value of the number at expr[start], and returns the index after it. Numbers
+	 * of up to 7 digits with up to 10 after the point are worked out as one float division
+	 * of exact values, which rounds the same as Float.parseFloat; others go to parseFloat.
+	 */
+	private int number(String expr, int start) {
+		int i = start, digits = 0, point = -1;
+		long mantissa = 0;
+		while (i < expr.length() && (Character.isDigit(expr.charAt(i)) || expr.charAt(i) == '.')) {
+			char c = expr.charAt(i);
+			if (c == '.') {
+				if (point >= 0) {
+					point = Integer.MAX_VALUE; // two points: let parseFloat reject it
+				} else {
+					point = i;
+				}
+			} else if (digits++ < 18) {
+				mantissa = 10 * mantissa + (c - '0');
+			}
+			i++;
+		}
+		int fraction = point < 0 ? 0 : i - point - 1;
+		if (digits > 0 && digits <= 7 && point != Integer.MAX_VALUE && fraction < POWERS_OF_TEN.length) {
+			values.push(mantissa / POWERS_OF_TEN[fraction]);
+		} else {
+			try {
+				values.push(Float.parseFloat(expr.substring(start, i)));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("bad number " + expr.substring(start, i) + " in " + expr);
+			}
+		}
+		return i;
+	}
+
+	private static int precedence(int op) {
+		switch (op) {
+		case '+': case '-': return 1;
+		case '*': case '/': return 2;
+		case '~': return 3;
+		default: return 0; // open brackets stay until closed
+		}
+	}
+
+	/**
+	 * Pops the operands of an operator, and pushes its result.
+	 */
+	private void apply(int op, String expr) {
+		if (values.size() < (op == '~' ? 1 : 2)) {
+			throw new IllegalArgumentException("missing operand of '" + (op == '~' ? '-' : (char)op) + "' in " + expr);
+		}
+		float right = values.pop();
+		switch (op) {
+		case '~': values.push(-right); break;
+		case '+': values.push(values.pop() + right); break;
+		case '-': values.push(values.pop() - right); break;
+		case '*': values.push(values.pop() * right); break;
+		default: values.push(values.pop() / right); break;
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package app;
+
+import java.util.*;
+
+/**
+ * The simple variables and arrays of an expression, with their names hashed, so a name is
+ * found in constant time however many there are. Each name has a slot, its index in the
+ * variables or arrays list, given in the order the names are added; a name is added once,
+ * so the lists hold no duplicates.
+ *
+ * A table may be made over lists that already have variables and arrays in them, such as
+ * those filled by makeVariableLists; the lists are then shared, and names added to the table
+ * go into them.
+ *
+ * Names may also be looked up by a range of characters of a string, such as the expression
+ * they are in, without making a string of the name, so a lookup allocates nothing.
+ *
+ */
+public class SymbolTable {
+
+	private final ArrayList<Variable> vars;
+	private final ArrayList<Array> arrays;
+	private final Index varSlots = new Index();
+	private final Index arraySlots = new Index();
+
+	/**
+	 * Hash index of names to slots, by open addressing with linear probing.
+	 */
+	private static final class Index {
+		private String[] keys = new String[16];
+		private int[] slots = new int[16];
+		private int size;
+
+		/**
+		 * Returns the slot of the name text[start..end-1], -1 if there is none.
+		 */
+		int get(String text, int start, int end) {
+			int h = 0;
+			for (int i = start; i < end; i++) {
+				h = 31 * h + text.charAt(i);
+			}
+			int mask = keys.length - 1;
+			for (int i = spread(h) & mask; keys[i] != null; i = (i + 1) & mask) {
+				String key = keys[i];
+				if (key.length() == end - start && key.regionMatches(0, text, start, end - start)) {
+					return slots[i];
+				}
+			}
+			return -1;
+		}
+
+		int get(String name) {
+			return get(name, 0, name.length());
+		}
+
+		/**
+		 * Adds a name that is not in the index.
+		 */
+		void put(String name, int slot) {
+			if (2 * (size + 1) > keys.length) {
+				String[] oldKeys = keys;
+				int[] oldSlots = slots;
+				keys = new String[2 * oldKeys.length];
+				slots = new int[2 * oldKeys.length];
+				size = 0;
+				for (int i = 0; i < oldKeys.length; i++) {
+					if (oldKeys[i] != null) {
+						put(oldKeys[i], oldSlots[i]);
+					}
+				}
+			}
+			int mask = keys.length - 1;
+			int i = spread(name.hashCode()) & mask;
+			while (keys[i] != null) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = name;
+			slots[i] = slot;
+			size++;
+		}
+
+		/**
+		 * Mixes the high bits of a String hash code into the low bits the table uses.
+		 */
+		private static int spread(int h) {
+			return h ^ (h >>> 16);
+		}
+	}
+
+	/**
+	 * Initializes an empty table.
+	 */
+	public SymbolTable() {
+		this(new ArrayList<Variable>(), new ArrayList<Array>());
+	}
+
+	/**
+	 * Initializes a table over the given lists. If a name is in a list more than once, the
+	 * first one is found.
+	 *
+	 * @param vars The variables array list
+	 * @param arrays The arrays array list
+	 */
+	public SymbolTable(ArrayList<Variable> vars, ArrayList<Array> arrays) {
+		this.vars = vars;
+		this.arrays = arrays;
+		for (int i = 0; i < vars.size(); i++) {
+			if (varSlots.get(vars.get(i).name) < 0) {
+				varSlots.put(vars.get(i).name, i);
+			}
+		}
+		for (int i = 0; i < arrays.size(); i++) {
+			if (arraySlots.get(arrays.get(i).name) < 0) {
+				arraySlots.put(arrays.get(i).name, i);
+			}
+		}
+	}
+
+	/**
+	 * Adds a simple variable, with zero value, if there is none of that name.
+	 *
+	 * @param name Variable name
+	 * @return Slot of the variable
+	 */
+	public int addVariable(String name) {
+		int slot = varSlots.get(name);
+		if (slot < 0) {
+			slot = vars.size();
+			vars.add(new Variable(name));
+			varSlots.put(name, slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * Adds an array, with null values, if there is none of that name.
+	 *
+	 * @param name Array name
+	 * @return Slot of the array
+	 */
+	public int addArray(String name) {
+		int slot = arraySlots.get(name);
+		if (slot < 0) {
+			slot = arrays.size();
+			arrays.add(new Array(name));
+			arraySlots.put(name, slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * Returns the slot of a simple variable.
+	 *
+	 * @param name Variable name
+	 * @return Slot, or -1 if there is no variable of that name
+	 */
+	public int variableSlot(String name) {
+		return varSlots.get(name);
+	}
+
+	/**
+	 * Returns the slot of the simple variable named by text[start..end-1].
+	 *
+	 * @param text Text the name is in
+	 * @param start Index of the first character of the name
+	 * @param end Index after the last character of the name
+	 * @return Slot, or -1 if there is no variable of that name
+	 */
+	public int variableSlot(String text, int start, int end) {
+		return varSlots.get(text, start, end);
+	}
+
+	/**
+	 * Returns the slot of an array.
+	 *
+	 * @param name Array name
+	 * @return Slot, or -1 if there is no array of that name
+	 */
+	public int arraySlot(String name) {
+		return arraySlots.get(name);
+	}
+
+	/**
+	 * Returns the slot of the array named by text[start..end-1].
+	 *
+	 * @param text Text the name is in
+	 * @param start Index of the first character of the name
+	 * @param end Index after the last character of the name
+	 * @return Slot, or -1 if there is no array of that name
+	 */
+	public int arraySlot(String text, int start, int end) {
+		return arraySlots.get(text, start, end);
+	}
+
+	/**
+	 * Returns a simple variable.
+	 *
+	 * @param name Variable name
+	 * @return The variable, or null if there is none of that name
+	 */
+	public Variable variable(String name) {
+		int slot = varSlots.get(name);
+		return slot < 0 ? null : vars.get(slot);
+	}
+
+	/**
+	 * Returns an array.
+	 *
+	 * @param name Array name
+	 * @return The array, or null if there is none of that name
+	 */
+	public Array array(String name) {
+		int slot = arraySlots.get(name);
+		return slot < 0 ? null : arrays.get(slot);
+	}
+
+	/**
+	 * Returns the variables, by slot.
+	 *
+	 * @return The variables array list
+	 */
+	public ArrayList<Variable> variables() {
+		return vars;
+	}
+
+	/**
+	 * Returns the arrays, by slot.
+	 *
+	 * @return The arrays array list
+	 */
+	public ArrayList<Array> arrays() {
+		return arrays;
+	}
+
+	/**
+	 * Returns the names of the simple variables, by slot.
+	 *
+	 * @return Variable names
+	 */
+	public ArrayList<String> variableNames() {
+		ArrayList<String> names = new ArrayList<String>(vars.size());
+		for (Variable v : vars) {
+			names.add(v.name);
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the names of the arrays, by slot.
+	 *
+	 * @return Array names
+	 */
+	public ArrayList<String> arrayNames() {
+		ArrayList<String> names = new ArrayList<String>(arrays.size());
+		for (Array a : arrays) {
+			names.add(a.name);
+		}
+		return names;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return vars + " " + arrays;
+	}
+}
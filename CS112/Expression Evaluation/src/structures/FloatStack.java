@@ -0,0 +1,90 @@
+package structures;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A stack of float values, kept in an array that grows as needed. Unlike Stack&lt;Float&gt;,
+ * nothing is boxed, and once the array is big enough, pushing and popping allocate nothing.
+ *
+ */
+public class FloatStack {
+
+	/**
+	 * Items in the stack, items[0..size-1], the top last.
+	 */
+	private float[] items;
+	private int size;
+
+	/**
+	 * Initializes stack to empty.
+	 */
+	public FloatStack() {
+		items = new float[16];
+	}
+
+	/**
+	 * Pushes a new item on top of stack.
+	 * 
+	 * @param item Item to push.
+	 */
+	public void push(float item) {
+		if (size == items.length) {
+			items = Arrays.copyOf(items, 2 * size);
+		}
+		items[size++] = item;
+	}
+
+	/**
+	 * Pops item at top of stack and returns it.
+	 * 
+	 * @return Popped item.
+	 * @throws NoSuchElementException If stack is empty.
+	 */
+	public float pop() 
+	throws NoSuchElementException {
+		if (size == 0) {
+			throw new NoSuchElementException("can't pop from an empty stack");
+		}
+		return items[--size];
+	}
+
+	/**
+	 * Returns item on top of stack, without popping it.
+	 * 
+	 * @return Item at top of stack.
+	 * @throws NoSuchElementException If stack is empty.
+	 */
+	public float peek() 
+	throws NoSuchElementException {
+		if (size == 0) {
+			throw new NoSuchElementException("can't peek on an empty stack");
+		}
+		return items[size - 1];
+	}
+
+	/**
+	 * Tells if stack is empty.
+	 * 
+	 * @return True if stack is empty, false if not.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns number of items in stack.
+	 * 
+	 * @return Number of items in stack.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Empties the stack, keeping its array for reuse.
+	 */
+	public void clear() {
+		size = 0;
+	}
+}
@@ -0,0 +1,320 @@
+package lse;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.*;
+
+/**
+ * Reads the files in a zip, tar or gzip compressed tar archive from a stream, one after the
+ * other, in the manner of ZipInputStream: nextEntry moves to the next file, and the reader
+ * then reads the contents of that file. The format is told from the first bytes of the
+ * stream. Nothing is buffered beyond a block of the archive, so files of any size are read
+ * in the same memory, and the archive is read once, front to back.
+ *
+ * Only regular files are returned; directories, links and other entries are skipped. Tar
+ * archives may use the ustar name prefix, GNU long names, and pax path and size records.
+ *
+ */
+public class ArchiveReader extends InputStream {
+
+	/**
+	 * Size of a tar block; headers take one block, contents are padded to whole blocks.
+	 */
+	static final int BLOCK = 512;
+
+	/**
+	 * Longest GNU long name or pax header read.
+	 */
+	static final int MAX_HEADER_DATA = 1 << 20;
+
+	private final InputStream in;
+
+	/**
+	 * The zip stream, or null for a tar archive.
+	 */
+	private final ZipInputStream zip;
+
+	/**
+	 * For a tar archive, the bytes left of the current file, and the padding after them.
+	 */
+	private long remaining, padding;
+
+	private final byte[] header = new byte[BLOCK];
+	private final byte[] single = new byte[1];
+	private boolean done;
+
+	/**
+	 * Initializes a reader of the archive in the given stream.
+	 *
+	 * @param in Archive contents: zip, tar, or gzip compressed tar
+	 * @throws IOException If there is a problem reading
+	 */
+	public ArchiveReader(InputStream in)
+	throws IOException {
+		in = in.markSupported() ? in : new BufferedInputStream(in);
+		in.mark(4);
+		int b0 = in.read(), b1 = in.read();
+		in.reset();
+		if (b0 == 'P' && b1 == 'K') {
+			zip = new ZipInputStream(in);
+			this.in = zip;
+		} else if (b0 == 0x1f && b1 == 0x8b) {
+			zip = null;
+			this.in = new GZIPInputStream(in, 8192);
+		} else {
+			zip = null;
+			this.in = in;
+		}
+	}
+
+	/**
+	 * Moves to the next file of the archive, skipping what is left of the current one.
+	 *
+	 * @return Path of the file within the archive, or null if there are no more files
+	 * @throws IOException If there is a problem reading, or the archive is corrupt or of another format
+	 */
+	public String nextEntry()
+	throws IOException {
+		if (zip != null) {
+			ZipEntry e;
+			while ((e = zip.getNextEntry()) != null && e.isDirectory()) {
+				// skip
+			}
+			return e == null ? null : e.getName();
+		}
+		skipFully(remaining + padding);
+		remaining = padding = 0;
+		String longName = null;
+		long paxSize = -1;
+		while (!done) {
+			if (!readBlock(header)) {
+				done = true;
+				return null;
+			}
+			if (isZero(header)) {
+				// end of archive (two zero blocks; one is enough to stop)
+				done = true;
+				return null;
+			}
+			if (!checksumMatches(header)) {
+				throw new IOException("bad tar header checksum");
+			}
+			long size = number(header, 124, 12);
+			long pad = (BLOCK - size % BLOCK) % BLOCK;
+			byte type = header[156];
+			if (type == 'L' || type == 'x') {
+				byte[] data = readData(size, pad);
+				if (type == 'L') {
+					longName = cString(data, 0, data.length);
+				} else {
+					String[] pax = paxRecords(data);
+					if (pax[0] != null) {
+						longName = pax[0];
+					}
+					if (pax[1] != null) {
+						try {
+							paxSize = Long.parseLong(pax[1]);
+						} catch (NumberFormatException e) {
+							throw new IOException("bad pax size", e);
+						}
+						if (paxSize < 0) {
+							throw new IOException("bad pax size");
+						}
+					}
+				}
+				continue;
+			}
+			if (paxSize >= 0) {
+				size = paxSize;
+				pad = (BLOCK - size % BLOCK) % BLOCK;
+			}
+			if (type != '0' && type != 0 && type != '7') {
+				// not a regular file: its contents, if any, are skipped
+				skipFully(size + pad);
+				longName = null;
+				paxSize = -1;
+				continue;
+			}
+			remaining = size;
+			padding = pad;
+			if (longName != null) {
+				return longName;
+			}
+			String name = cString(header, 0, 100);
+			String prefix = cString(header, 345, 155);
+			boolean ustar = header[257] == 'u' && header[258] == 's' && header[259] == 't'
+					&& header[260] == 'a' && header[261] == 'r';
+			return ustar && prefix.length() > 0 ? prefix + "/" + name : name;
+		}
+		return null;
+	}
+
+	public int read()
+	throws IOException {
+		return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len)
+	throws IOException {
+		if (zip != null) {
+			return zip.read(b, off, len);
+		}
+		if (remaining == 0) {
+			return -1;
+		}
+		int n = in.read(b, off, (int)Math.min(len, remaining));
+		if (n == -1) {
+			throw new EOFException("tar entry cut short");
+		}
+		remaining -= n;
+		return n;
+	}
+
+	public void close()
+	throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Reads a whole block; false if the stream ends before the block starts.
+	 */
+	private boolean readBlock(byte[] block)
+	throws IOException {
+		int n = 0;
+		while (n < block.length) {
+			int r = in.read(block, n, block.length - n);
+			if (r == -1) {
+				if (n == 0) {
+					return false;
+				}
+				throw new EOFException("tar header cut short");
+			}
+			n += r;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the contents of a header entry, such as a long name, and its padding.
+	 */
+	private byte[] readData(long size, long pad)
+	throws IOException {
+		if (size > MAX_HEADER_DATA) {
+			throw new IOException("tar header entry of " + size + " bytes");
+		}
+		byte[] data = new byte[(int)size];
+		new DataInputStream(in).readFully(data);
+		skipFully(pad);
+		return data;
+	}
+
+	private void skipFully(long n)
+	throws IOException {
+		while (n > 0) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) {
+				if (in.read() == -1) {
+					throw new EOFException("tar entry cut short");
+				}
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
+	private static boolean isZero(byte[] block) {
+		for (byte b : block) {
+			if (b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tells if the header checksum, the sum of its bytes with the checksum field as spaces,
+	 * matches the checksum field. Some writers sum signed bytes, so either sum matches.
+	 */
+	private static boolean checksumMatches(byte[] block) {
+		long unsigned = 0, signed = 0;
+		for (int i = 0; i < BLOCK; i++) {
+			byte b = i >= 148 && i < 156 ? (byte)' ' : block[i];
+			unsigned += b & 0xff;
+			signed += b;
+		}
+		long stored = number(block, 148, 8);
+		return stored == unsigned || stored == signed;
+	}
+
+	/**
+	 * Parses a numeric header field: octal digits, or base 256 if the high bit of the first
+	 * byte is set (GNU tar, for sizes of 8 GB and more).
+	 */
+	static long number(byte[] block, int off, int len) {
+		long v = 0;
+		if ((block[off] & 0x80) != 0) {
+			v = block[off] & 0x7f;
+			for (int i = off + 1; i < off + len; i++) {
+				v = v << 8 | (block[i] & 0xff);
+			}
+			return v;
+		}
+		int i = off;
+		while (i < off + len && (block[i] == ' ' || block[i] == 0)) {
+			i++;
+		}
+		while (i < off + len && block[i] >= '0' && block[i] <= '7') {
+			v = v * 8 + (block[i++] - '0');
+		}
+		return v;
+	}
+
+	/**
+	 * Returns the NUL terminated UTF-8 string in block[off..off+len-1].
+	 */
+	private static String cString(byte[] block, int off, int len) {
+		int end = off;
+		while (end < off + len && block[end] != 0) {
+			end++;
+		}
+		return new String(block, off, end - off, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the path and size of a pax extended header, each null if not given. Records
+	 * are of the form "length key=value\n", the length counting the whole record.
+	 */
+	private static String[] paxRecords(byte[] data)
+	throws IOException {
+		String[] result = new String[2];
+		int pos = 0;
+		while (pos < data.length) {
+			int space = pos;
+			while (space < data.length && data[space] != ' ') {
+				space++;
+			}
+			int length;
+			try {
+				length = Integer.parseInt(new String(data, pos, space - pos, StandardCharsets.US_ASCII));
+			} catch (NumberFormatException e) {
+				throw new IOException("bad pax header", e);
+			}
+			// at least the length, a space, and the newline
+			if (length < space - pos + 2 || pos + length > data.length) {
+				throw new IOException("bad pax header");
+			}
+			String record = new String(data, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+			int eq = record.indexOf('=');
+			if (eq > 0) {
+				String key = record.substring(0, eq);
+				if (key.equals("path")) {
+					result[0] = record.substring(eq + 1);
+				} else if (key.equals("size")) {
+					result[1] = record.substring(eq + 1);
+				}
+			}
+			pos += length;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,211 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * A set of documents in ascending order of document ids, each with a score, used to
+ * evaluate boolean queries. Intersection and difference walk the smaller set and find
+ * each of its documents in the larger one by galloping (exponential then binary) search,
+ * so their cost depends mostly on the size of the smaller set.
+ *
+ */
+public class DocSet {
+
+	/**
+	 * Document ids in ascending order, and their scores, in positions 0..size-1.
+	 */
+	int[] docs;
+	int[] scores;
+	int size;
+
+	/**
+	 * Initializes an empty set.
+	 *
+	 * @param capacity Number of documents expected
+	 */
+	public DocSet(int capacity) {
+		docs = new int[Math.max(capacity, 1)];
+		scores = new int[docs.length];
+	}
+
+	/**
+	 * Returns the number of documents.
+	 *
+	 * @return Number of documents
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the i-th document id, in ascending order.
+	 *
+	 * @param i Index
+	 * @return Document id
+	 */
+	public int doc(int i) {
+		return docs[i];
+	}
+
+	/**
+	 * Returns the score of the i-th document.
+	 *
+	 * @param i Index
+	 * @return Score
+	 */
+	public int score(int i) {
+		return scores[i];
+	}
+
+	/**
+	 * Appends a document, which must come after all documents in the set.
+	 *
+	 * @param doc Document id
+	 * @param score Score
+	 */
+	void add(int doc, int score) {
+		if (size == docs.length) {
+			docs = Arrays.copyOf(docs, size * 2);
+			scores = Arrays.copyOf(scores, size * 2);
+		}
+		docs[size] = doc;
+		scores[size++] = score;
+	}
+
+	/**
+	 * Documents in both sets, scored with the sum of their scores.
+	 *
+	 * @param a First set
+	 * @param b Second set
+	 * @return Intersection
+	 */
+	public static DocSet and(DocSet a, DocSet b) {
+		if (a.size > b.size) {
+			DocSet t = a;
+			a = b;
+			b = t;
+		}
+		DocSet result = new DocSet(a.size);
+		int j = 0;
+		for (int i = 0; i < a.size && j < b.size; i++) {
+			j = gallop(b, a.docs[i], j);
+			if (j < b.size && b.docs[j] == a.docs[i]) {
+				result.add(a.docs[i], a.scores[i] + b.scores[j]);
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Documents in either set, scored with the sum of their scores.
+	 *
+	 * @param a First set
+	 * @param b Second set
+	 * @return Union
+	 */
+	public static DocSet or(DocSet a, DocSet b) {
+		DocSet result = new DocSet(a.size + b.size);
+		int i = 0, j = 0;
+		while (i < a.size || j < b.size) {
+			if (j == b.size || (i < a.size && a.docs[i] < b.docs[j])) {
+				result.add(a.docs[i], a.scores[i]);
+				i++;
+			} else if (i == a.size || b.docs[j] < a.docs[i]) {
+				result.add(b.docs[j], b.scores[j]);
+				j++;
+			} else {
+				result.add(a.docs[i], a.scores[i] + b.scores[j]);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Documents in the first set that are not in the second, with their scores in the first set.
+	 *
+	 * @param a First set
+	 * @param b Second set
+	 * @return Difference
+	 */
+	public static DocSet not(DocSet a, DocSet b) {
+		DocSet result = new DocSet(a.size);
+		int j = 0;
+		for (int i = 0; i < a.size; i++) {
+			j = gallop(b, a.docs[i], j);
+			if (j == b.size || b.docs[j] != a.docs[i]) {
+				result.add(a.docs[i], a.scores[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a copy of the set without the given document, or the set itself if the
+	 * document is not in it.
+	 *
+	 * @param doc Document id
+	 * @return Set without the document
+	 */
+	DocSet without(int doc) {
+		int i = gallop(this, doc, 0);
+		if (i == size || docs[i] != doc) {
+			return this;
+		}
+		DocSet result = new DocSet(size - 1);
+		System.arraycopy(docs, 0, result.docs, 0, i);
+		System.arraycopy(scores, 0, result.scores, 0, i);
+		System.arraycopy(docs, i + 1, result.docs, i, size - i - 1);
+		System.arraycopy(scores, i + 1, result.scores, i, size - i - 1);
+		result.size = size - 1;
+		return result;
+	}
+
+	/**
+	 * Returns the index of the first document at or after from that is >= doc, or size if none.
+	 */
+	static int gallop(DocSet set, int doc, int from) {
+		int step = 1;
+		int lo = from, hi = from;
+		while (hi < set.size && set.docs[hi] < doc) {
+			lo = hi + 1;
+			hi += step;
+			step *= 2;
+		}
+		hi = Math.min(hi, set.size);
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (set.docs[mid] < doc) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the ids of the k documents with the highest scores, in descending order of scores,
+	 * ties in ascending order of ids.
+	 *
+	 * @param k Maximum number of documents
+	 * @return Document ids, none if k is 0 or less
+	 */
+	public int[] top(int k) {
+		if (k <= 0) {
+			return new int[0];
+		}
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = (long)(Integer.MAX_VALUE - scores[i]) << 32 | docs[i];
+		}
+		Arrays.sort(keys);
+		int[] top = new int[Math.min(k, size)];
+		for (int i = 0; i < top.length; i++) {
+			top[i] = (int)keys[i];
+		}
+		return top;
+	}
+}
@@ -0,0 +1,228 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * Table of indexed documents. Each document name is interned to an int id, in the order
+ * documents are first seen, so that posting lists can refer to documents by id. Ids of
+ * removed documents are never reused. The table also keeps, for each document, the keywords
+ * it was merged with and their frequencies, so a document can be taken out of the index
+ * without scanning it, and its length (total frequency of its keywords) for ranking.
+ *
+ */
+public class DocumentTable {
+
+	/**
+	 * Document names, by id.
+	 */
+	private ArrayList<String> names;
+
+	/**
+	 * Document ids, by name.
+	 */
+	private HashMap<String,Integer> ids;
+
+	/**
+	 * Keywords of each document and their frequencies, by id. Null if not known.
+	 */
+	private ArrayList<String[]> keywords;
+	private ArrayList<int[]> freqs;
+
+	/**
+	 * Length of each document, by id, and the total length of all documents in the table.
+	 */
+	private int[] lengths;
+	private long totalLength;
+
+	/**
+	 * Initializes an empty document table.
+	 */
+	public DocumentTable() {
+		names = new ArrayList<String>();
+		ids = new HashMap<String,Integer>();
+		keywords = new ArrayList<String[]>();
+		freqs = new ArrayList<int[]>();
+		lengths = new int[16];
+	}
+
+	/**
+	 * Returns the id of the given document, adding it to the table if it is new.
+	 *
+	 * @param name Document name
+	 * @return Document id
+	 */
+	public int intern(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			names.add(name);
+			ids.put(name, id);
+			keywords.add(null);
+			freqs.add(null);
+			growLengths();
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of the given document.
+	 *
+	 * @param name Document name
+	 * @return Document id, or -1 if the document is not in the table
+	 */
+	public int id(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Adds a document that has been removed, to keep the ids of the documents that follow.
+	 */
+	void addRemoved() {
+		names.add(null);
+		keywords.add(null);
+		freqs.add(null);
+		growLengths();
+	}
+
+	private void growLengths() {
+		if (names.size() > lengths.length) {
+			lengths = Arrays.copyOf(lengths, lengths.length * 2);
+		}
+	}
+
+	/**
+	 * Removes a document from the table. Its id is not reused.
+	 *
+	 * @param id Document id
+	 */
+	public void remove(int id) {
+		ids.remove(names.get(id));
+		names.set(id, null);
+		keywords.set(id, null);
+		freqs.set(id, null);
+		setLength(id, 0);
+	}
+
+	/**
+	 * Records keywords of a document, and their frequencies, after any recorded before.
+	 *
+	 * @param id Document id
+	 * @param kws Keywords
+	 * @param kwFreqs Frequency of each keyword in the document
+	 */
+	public void addKeywords(int id, String[] kws, int[] kwFreqs) {
+		String[] oldKws = keywords.get(id);
+		if (oldKws != null) {
+			int[] oldFreqs = freqs.get(id);
+			String[] allKws = Arrays.copyOf(oldKws, oldKws.length + kws.length);
+			int[] allFreqs = Arrays.copyOf(oldFreqs, oldFreqs.length + kwFreqs.length);
+			System.arraycopy(kws, 0, allKws, oldKws.length, kws.length);
+			System.arraycopy(kwFreqs, 0, allFreqs, oldFreqs.length, kwFreqs.length);
+			kws = allKws;
+			kwFreqs = allFreqs;
+		}
+		keywords.set(id, kws);
+		freqs.set(id, kwFreqs);
+		setLength(id, sum(kwFreqs));
+	}
+
+	/**
+	 * Replaces the recorded keywords of a document, and their frequencies.
+	 *
+	 * @param id Document id
+	 * @param kws Keywords
+	 * @param kwFreqs Frequency of each keyword in the document
+	 */
+	public void setKeywords(int id, String[] kws, int[] kwFreqs) {
+		keywords.set(id, kws);
+		freqs.set(id, kwFreqs);
+		setLength(id, sum(kwFreqs));
+	}
+
+	private static int sum(int[] values) {
+		int sum = 0;
+		for (int v : values) {
+			sum += v;
+		}
+		return sum;
+	}
+
+	/**
+	 * Sets the length of a document.
+	 *
+	 * @param id Document id
+	 * @param length Total frequency of the document's keywords
+	 */
+	void setLength(int id, int length) {
+		totalLength += length - lengths[id];
+		lengths[id] = length;
+	}
+
+	/**
+	 * Returns the length of a document.
+	 *
+	 * @param id Document id
+	 * @return Total frequency of the document's keywords
+	 */
+	public int length(int id) {
+		return lengths[id];
+	}
+
+	/**
+	 * Returns the average length of the documents in the table.
+	 *
+	 * @return Average document length, 0 if there are no documents
+	 */
+	public double averageLength() {
+		return ids.isEmpty() ? 0 : totalLength / (double)ids.size();
+	}
+
+	/**
+	 * Returns the number of documents in the table, not counting removed ones.
+	 *
+	 * @return Number of documents
+	 */
+	public int count() {
+		return ids.size();
+	}
+
+	/**
+	 * Returns the keywords of a document.
+	 *
+	 * @param id Document id
+	 * @return Keywords, or null if none were recorded
+	 */
+	public String[] keywords(int id) {
+		return keywords.get(id);
+	}
+
+	/**
+	 * Returns the frequencies of the keywords of a document, in the same order as keywords(id).
+	 *
+	 * @param id Document id
+	 * @return Frequencies, or null if none were recorded
+	 */
+	public int[] freqs(int id) {
+		return freqs.get(id);
+	}
+
+	/**
+	 * Returns the name of the document with the given id.
+	 *
+	 * @param id Document id
+	 * @return Document name, or null if the document was removed
+	 */
+	public String name(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * Returns the number of document ids given out, including those of removed documents.
+	 *
+	 * @return Number of documents
+	 */
+	public int size() {
+		return names.size();
+	}
+}
@@ -0,0 +1,58 @@
+package lse;
+
+/**
+ * Receives measurements of the work of a search engine, as it is done. The engine calls the
+ * methods on the threads doing the work, with no lock of its own held other than its read
+ * or write lock, so implementations must be thread safe and quick. See
+ * LittleSearchEngine.setMetrics, and StandardMetrics for an implementation.
+ *
+ */
+public interface EngineMetrics {
+
+	/**
+	 * Kinds of searches.
+	 */
+	enum Search {
+		TOP_K, BOOLEAN, RANKED, PHRASE, PROXIMITY
+	}
+
+	/**
+	 * A document was read and tokenized.
+	 *
+	 * @param words Number of words of the document, keywords or not
+	 * @param bytes Size of the document in bytes, -1 if not known
+	 * @param nanos Time taken, in nanoseconds
+	 */
+	void tokenized(int words, long bytes, long nanos);
+
+	/**
+	 * Documents were merged into the index.
+	 *
+	 * @param documents Number of documents
+	 * @param postings Number of postings added
+	 * @param nanos Time taken with the write lock held, in nanoseconds
+	 */
+	void merged(int documents, int postings, long nanos);
+
+	/**
+	 * A search was done.
+	 *
+	 * @param search Kind of search
+	 * @param nanos Time taken, in nanoseconds, including waiting for the read lock
+	 */
+	void searched(Search search, long nanos);
+
+	/**
+	 * Metrics that are thrown away.
+	 */
+	EngineMetrics NONE = new EngineMetrics() {
+		public void tokenized(int words, long bytes, long nanos) {
+		}
+
+		public void merged(int documents, int postings, long nanos) {
+		}
+
+		public void searched(Search search, long nanos) {
+		}
+	};
+}
@@ -0,0 +1,687 @@
+package lse;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary index file: the document table, noise words, and every keyword with its posting
+ * list, laid out so that a keyword can be looked up straight from a mapped buffer. The
+ * layout (all numbers big endian) is:
+ * <pre>
+ *     header    magic "LSEI", version, document count, noise word count, keyword count,
+ *               slot count, 1 if word positions are kept or else 0 (ints), body checksum
+ *               (CRC32 of everything after the header, long)
+ *     documents document count x (UTF-8 length int, UTF-8 bytes, document length int,
+ *               keyword count int, keyword count x (slot of keyword int, frequency int)),
+ *               UTF-8 length -1 and no bytes for a removed document
+ *     noise     noise word count x (UTF-8 length int, UTF-8 bytes)
+ *     slots     slot count x (offset of keyword entry, or 0 for an empty slot, long)
+ *     keywords  keyword count x (UTF-8 length int, UTF-8 bytes, posting count int,
+ *               posting count x (document id int, frequency int), and if positions
+ *               are kept, positions byte count int, positions bytes)
+ * </pre>
+ * Slots are an open addressing hash table (linear probing) on the keyword's String hash code.
+ * The keywords of each document let it be taken out of a loaded index without decoding
+ * any posting list. Positions are a stream of PositionIndex.
+ * A buffer holds at most 2 GB, so the index is held in buffers of CHUNK_BYTES each (the
+ * last one shorter), and a number or string may start in one buffer and end in the next.
+ *
+ */
+public class IndexFile {
+
+	static final int MAGIC = 0x4C534549; // "LSEI"
+	static final int VERSION = 4;
+	static final int HEADER_BYTES = 7*4 + 8;
+	static final int CHECKSUM_OFFSET = 7*4;
+
+	/**
+	 * Size of each buffer the index is held in, but the last.
+	 */
+	static final int CHUNK_BITS = 30;
+	static final int CHUNK_BYTES = 1 << CHUNK_BITS;
+
+	/**
+	 * The whole file, CHUNK_BYTES at a time.
+	 */
+	private ByteBuffer[] chunks;
+
+	/**
+	 * Number of keywords and hash slots, and where the slots start.
+	 */
+	private int keywordCount, slotCount;
+	private long slotsOffset;
+
+	/**
+	 * Documents, their lengths, and noise words, read when the file is opened.
+	 */
+	private ArrayList<String> documentNames;
+	private int[] documentLengths;
+	private ArrayList<String> noiseWords;
+
+	/**
+	 * Where the keyword count of each document is, and whether keyword entries have positions.
+	 */
+	private long[] documentKeywordOffsets;
+	private boolean hasPositions;
+
+	/**
+	 * Opens an index held in the given buffer.
+	 *
+	 * @param buf Buffer holding the whole index file
+	 * @param verify Whether to check the body checksum
+	 * @throws IOException If the buffer does not hold an index file of this version, or the checksum does not match
+	 */
+	public IndexFile(ByteBuffer buf, boolean verify)
+	throws IOException {
+		this(split(buf), verify);
+	}
+
+	/**
+	 * Opens an index held in the given buffers, each CHUNK_BYTES long but the last.
+	 */
+	private IndexFile(ByteBuffer[] chunks, boolean verify)
+	throws IOException {
+		this.chunks = new ByteBuffer[chunks.length];
+		for (int i = 0; i < chunks.length; i++) {
+			this.chunks[i] = chunks[i].duplicate().order(ByteOrder.BIG_ENDIAN);
+		}
+		if (chunks[0].capacity() < HEADER_BYTES || getInt(0) != MAGIC) {
+			throw new IOException("not an index file");
+		}
+		int version = getInt(4);
+		if (version != VERSION) {
+			throw new IOException("index file version " + version + ", expected " + VERSION);
+		}
+		int documentCount = getInt(8);
+		int noiseCount = getInt(12);
+		keywordCount = getInt(16);
+		slotCount = getInt(20);
+		hasPositions = getInt(24) != 0;
+		if (verify) {
+			CRC32 crc = new CRC32();
+			for (int i = 0; i < chunks.length; i++) {
+				ByteBuffer body = this.chunks[i].duplicate();
+				body.position(i == 0 ? HEADER_BYTES : 0);
+				crc.update(body);
+			}
+			if (crc.getValue() != getLong(CHECKSUM_OFFSET)) {
+				throw new IOException("index file checksum mismatch");
+			}
+		}
+		long pos = HEADER_BYTES;
+		documentNames = new ArrayList<String>(documentCount);
+		documentLengths = new int[documentCount];
+		documentKeywordOffsets = new long[documentCount];
+		for (int i = 0; i < documentCount; i++) {
+			int length = getInt(pos);
+			documentNames.add(length < 0 ? null : readString(pos));
+			pos += 4 + Math.max(length, 0);
+			documentLengths[i] = getInt(pos);
+			documentKeywordOffsets[i] = pos + 4;
+			pos += 8 + 8L * getInt(pos + 4);
+		}
+		noiseWords = new ArrayList<String>(noiseCount);
+		for (int i = 0; i < noiseCount; i++) {
+			noiseWords.add(readString(pos));
+			pos += 4 + getInt(pos);
+		}
+		slotsOffset = pos;
+	}
+
+	/**
+	 * Splits a buffer into buffers of CHUNK_BYTES, sharing its contents.
+	 */
+	private static ByteBuffer[] split(ByteBuffer buf) {
+		ByteBuffer[] chunks = new ByteBuffer[Math.max((int)(((long)buf.capacity() + CHUNK_BYTES - 1) >>> CHUNK_BITS), 1)];
+		for (int i = 0; i < chunks.length; i++) {
+			ByteBuffer chunk = buf.duplicate();
+			chunk.limit((int)Math.min((long)(i + 1) * CHUNK_BYTES, buf.capacity()));
+			chunk.position(i * CHUNK_BYTES);
+			chunks[i] = chunk.slice();
+		}
+		return chunks;
+	}
+
+	/**
+	 * Maps an index file into memory and opens it.
+	 *
+	 * @param indexFile Name of the index file
+	 * @param verify Whether to check the body checksum
+	 * @return The opened index
+	 * @throws IOException If the file cannot be mapped, or is not a valid index file
+	 */
+	public static IndexFile map(String indexFile, boolean verify)
+	throws IOException {
+		FileChannel ch = new RandomAccessFile(indexFile, "r").getChannel();
+		try {
+			long size = ch.size();
+			ByteBuffer[] chunks = new ByteBuffer[Math.max((int)((size + CHUNK_BYTES - 1) >>> CHUNK_BITS), 1)];
+			for (int i = 0; i < chunks.length; i++) {
+				long from = (long)i << CHUNK_BITS;
+				chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY, from, Math.min(CHUNK_BYTES, size - from));
+			}
+			return new IndexFile(chunks, verify);
+		} finally {
+			ch.close();
+		}
+	}
+
+	/**
+	 * Returns the names of the documents, by id.
+	 *
+	 * @return Document names, null for removed documents
+	 */
+	public ArrayList<String> documentNames() {
+		return documentNames;
+	}
+
+	/**
+	 * Returns the lengths of the documents, by id.
+	 *
+	 * @return Document lengths
+	 */
+	public int[] documentLengths() {
+		return documentLengths;
+	}
+
+	/**
+	 * Returns the keywords of a document, as they were when the index was written.
+	 *
+	 * @param doc Document id
+	 * @return Keywords, or null if the document is not in the index or was removed
+	 */
+	public String[] documentKeywords(int doc) {
+		if (doc >= documentNames.size() || documentNames.get(doc) == null) {
+			return null;
+		}
+		long pos = documentKeywordOffsets[doc];
+		String[] keywords = new String[getInt(pos)];
+		for (int i = 0; i < keywords.length; i++) {
+			keywords[i] = readString(getLong(slotsOffset + getInt(pos + 4 + 8L*i) * 8L));
+		}
+		return keywords;
+	}
+
+	/**
+	 * Returns the frequencies of the keywords of a document, in the order of documentKeywords.
+	 *
+	 * @param doc Document id
+	 * @return Frequencies, or null if the document is not in the index or was removed
+	 */
+	public int[] documentFreqs(int doc) {
+		if (doc >= documentNames.size() || documentNames.get(doc) == null) {
+			return null;
+		}
+		long pos = documentKeywordOffsets[doc];
+		int[] freqs = new int[getInt(pos)];
+		for (int i = 0; i < freqs.length; i++) {
+			freqs[i] = getInt(pos + 8 + 8L*i);
+		}
+		return freqs;
+	}
+
+	/**
+	 * Tells if the index has the word positions of its keywords.
+	 *
+	 * @return True if positions are kept
+	 */
+	public boolean hasPositions() {
+		return hasPositions;
+	}
+
+	/**
+	 * Returns the word positions of a keyword, a stream as kept by PositionIndex.
+	 *
+	 * @param keyword Keyword
+	 * @return Positions stream, or null if the keyword is not in the index or positions are not kept
+	 */
+	public byte[] positions(String keyword) {
+		long entry = find(keyword);
+		if (entry == 0 || !hasPositions) {
+			return null;
+		}
+		long pos = entry + 4 + getInt(entry);
+		pos += 4 + 8L * getInt(pos);
+		byte[] bytes = new byte[getInt(pos)];
+		readBytes(pos + 4, bytes);
+		return bytes;
+	}
+
+	/**
+	 * Returns the noise words.
+	 *
+	 * @return Noise words
+	 */
+	public ArrayList<String> noiseWords() {
+		return noiseWords;
+	}
+
+	/**
+	 * Returns the number of keywords.
+	 *
+	 * @return Number of keywords
+	 */
+	public int keywordCount() {
+		return keywordCount;
+	}
+
+	/**
+	 * Looks up a keyword, and decodes its posting list.
+	 *
+	 * @param keyword Keyword
+	 * @return Posting list, or null if the keyword is not in the index
+	 */
+	public PostingList postings(String keyword) {
+		return postings(keyword, null);
+	}
+
+	/**
+	 * Looks up a keyword, and decodes its posting list, leaving out the documents removed
+	 * from the given document table since the index was written.
+	 *
+	 * @param keyword Keyword
+	 * @param documents Document table made from this index, or null to keep every posting
+	 * @return Posting list, possibly empty, or null if the keyword is not in the index
+	 */
+	public PostingList postings(String keyword, DocumentTable documents) {
+		long entry = find(keyword);
+		return entry == 0 ? null : readPostings(entry, documents);
+	}
+
+	/**
+	 * Tells if a keyword is in the index.
+	 *
+	 * @param keyword Keyword
+	 * @return True if the keyword has an entry
+	 */
+	public boolean contains(String keyword) {
+		return find(keyword) != 0;
+	}
+
+	/**
+	 * Returns all keywords, in slot order.
+	 *
+	 * @return Keywords
+	 */
+	public ArrayList<String> keywords() {
+		ArrayList<String> keywords = new ArrayList<String>(keywordCount);
+		for (int slot = 0; slot < slotCount; slot++) {
+			long entry = getLong(slotsOffset + slot*8L);
+			if (entry != 0) {
+				keywords.add(readString(entry));
+			}
+		}
+		return keywords;
+	}
+
+	/**
+	 * Returns the offset of the keyword's entry, or 0 if it is not in the index.
+	 */
+	private long find(String keyword) {
+		if (slotCount == 0) {
+			return 0;
+		}
+		byte[] bytes = keyword.getBytes(StandardCharsets.UTF_8);
+		int mask = slotCount - 1;
+		int slot = spread(keyword.hashCode()) & mask;
+		while (true) {
+			long entry = getLong(slotsOffset + slot*8L);
+			if (entry == 0 || equalBytes(entry, bytes)) {
+				return entry;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private boolean equalBytes(long pos, byte[] bytes) {
+		if (getInt(pos) != bytes.length) {
+			return false;
+		}
+		pos += 4;
+		for (int i = 0; i < bytes.length; i++) {
+			if (get(pos + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private PostingList readPostings(long entry, DocumentTable documents) {
+		long pos = entry + 4 + getInt(entry);
+		int n = getInt(pos);
+		pos += 4;
+		int[] docs = new int[n];
+		int[] freqs = new int[n];
+		int kept = 0;
+		for (int i = 0; i < n; i++) {
+			int doc = getInt(pos);
+			if (documents == null || documents.name(doc) != null) {
+				docs[kept] = doc;
+				freqs[kept++] = getInt(pos + 4);
+			}
+			pos += 8;
+		}
+		if (kept < n) {
+			docs = Arrays.copyOf(docs, kept);
+			freqs = Arrays.copyOf(freqs, kept);
+		}
+		return new PostingList(readString(entry), docs, freqs);
+	}
+
+	private String readString(long pos) {
+		byte[] bytes = new byte[getInt(pos)];
+		readBytes(pos + 4, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void readBytes(long pos, byte[] bytes) {
+		for (int done = 0; done < bytes.length; ) {
+			ByteBuffer b = chunks[(int)(pos >>> CHUNK_BITS)].duplicate();
+			b.position((int)(pos & (CHUNK_BYTES - 1)));
+			int n = Math.min(bytes.length - done, b.remaining());
+			b.get(bytes, done, n);
+			done += n;
+			pos += n;
+		}
+	}
+
+	private byte get(long pos) {
+		return chunks[(int)(pos >>> CHUNK_BITS)].get((int)(pos & (CHUNK_BYTES - 1)));
+	}
+
+	private int getInt(long pos) {
+		ByteBuffer chunk = chunks[(int)(pos >>> CHUNK_BITS)];
+		int offset = (int)(pos & (CHUNK_BYTES - 1));
+		if (offset <= chunk.capacity() - 4) {
+			return chunk.getInt(offset);
+		}
+		// the int runs on into the next buffer
+		return (get(pos) & 0xff) << 24 | (get(pos + 1) & 0xff) << 16 | (get(pos + 2) & 0xff) << 8 | (get(pos + 3) & 0xff);
+	}
+
+	private long getLong(long pos) {
+		return (long)getInt(pos) << 32 | (getInt(pos + 4) & 0xffffffffL);
+	}
+
+	static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Where everything goes in an index file, worked out before anything is written.
+	 */
+	private static class Layout {
+		final ArrayList<byte[]> docBytes, noiseBytes, keywordBytes;
+		final ArrayList<String> keywords;
+		final long[] slots;
+		final int[] keywordSlots;
+		final long size;
+
+		/**
+		 * Keyword numbers and frequencies of each document, in pairs, and the number of pairs.
+		 */
+		final int[][] docKeywords;
+		final int[] docKeywordCounts;
+
+		/**
+		 * Positions of each keyword, or null if positions are not kept.
+		 */
+		final PositionIndex.Positions[] keywordPositions;
+
+		/**
+		 * Lays out the keywords of the index that have postings; a keyword may map to null
+		 * or to an empty list, and is then left out.
+		 */
+		Layout(DocumentTable documents, Collection<String> noiseWords, Map<String,PostingList> index,
+				PositionIndex positions) {
+			docBytes = encodeAll(documentNames(documents));
+			noiseBytes = encodeAll(noiseWords);
+			keywords = new ArrayList<String>(index.size());
+			int[] postingCounts = new int[index.size()];
+			docKeywords = new int[docBytes.size()][];
+			docKeywordCounts = new int[docBytes.size()];
+			long postingCount = 0;
+			for (Map.Entry<String,PostingList> e : index.entrySet()) {
+				PostingList list = e.getValue();
+				if (list != null && list.size() > 0) {
+					for (int i = 0; i < list.size(); i++) {
+						addDocumentKeyword(list.doc(i), keywords.size(), list.freq(i));
+					}
+					postingCounts[keywords.size()] = list.size();
+					postingCount += list.size();
+					keywords.add(e.getKey());
+				}
+			}
+			keywordBytes = encodeAll(keywords);
+			keywordPositions = positions == null ? null : new PositionIndex.Positions[keywords.size()];
+			int slotCount = 16;
+			while (slotCount < keywords.size() * 2) {
+				slotCount *= 2;
+			}
+			slots = new long[slotCount];
+			keywordSlots = new int[keywords.size()];
+			// lay out the keyword entries after the slots
+			long pos = HEADER_BYTES + sizeOf(docBytes) + 8L * docBytes.size() + 8 * postingCount
+					+ sizeOf(noiseBytes) + slotCount * 8L;
+			for (int k = 0; k < keywords.size(); k++) {
+				int slot = spread(keywords.get(k).hashCode()) & (slotCount - 1);
+				while (slots[slot] != 0) {
+					slot = (slot + 1) & (slotCount - 1);
+				}
+				slots[slot] = pos;
+				keywordSlots[k] = slot;
+				pos += 4 + keywordBytes.get(k).length + 4 + 8L * postingCounts[k];
+				if (keywordPositions != null) {
+					keywordPositions[k] = positions.get(keywords.get(k));
+					pos += 4 + (keywordPositions[k] == null ? 0 : keywordPositions[k].length);
+				}
+			}
+			size = pos;
+		}
+
+		private void addDocumentKeyword(int doc, int keyword, int freq) {
+			int[] pairs = docKeywords[doc];
+			int n = docKeywordCounts[doc];
+			if (pairs == null) {
+				pairs = docKeywords[doc] = new int[8];
+			} else if (2*n == pairs.length) {
+				pairs = docKeywords[doc] = Arrays.copyOf(pairs, 2*pairs.length);
+			}
+			pairs[2*n] = keyword;
+			pairs[2*n + 1] = freq;
+			docKeywordCounts[doc] = n + 1;
+		}
+
+		/**
+		 * Writes the header, with the given checksum.
+		 */
+		void writeHeader(DataOutput out, long checksum)
+		throws IOException {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(docBytes.size());
+			out.writeInt(noiseBytes.size());
+			out.writeInt(keywords.size());
+			out.writeInt(slots.length);
+			out.writeInt(keywordPositions == null ? 0 : 1);
+			out.writeLong(checksum);
+		}
+
+		/**
+		 * Writes everything after the header.
+		 */
+		void writeBody(DataOutputStream out, DocumentTable documents, Map<String,PostingList> index)
+		throws IOException {
+			for (int i = 0; i < docBytes.size(); i++) {
+				writeAll(out, docBytes.subList(i, i + 1));
+				out.writeInt(documents.length(i));
+				out.writeInt(docKeywordCounts[i]);
+				for (int j = 0; j < docKeywordCounts[i]; j++) {
+					out.writeInt(keywordSlots[docKeywords[i][2*j]]);
+					out.writeInt(docKeywords[i][2*j + 1]);
+				}
+			}
+			writeAll(out, noiseBytes);
+			for (long slot : slots) {
+				out.writeLong(slot);
+			}
+			for (int k = 0; k < keywords.size(); k++) {
+				PostingList list = index.get(keywords.get(k));
+				out.writeInt(keywordBytes.get(k).length);
+				out.write(keywordBytes.get(k));
+				out.writeInt(list.size());
+				for (int i = 0; i < list.size(); i++) {
+					out.writeInt(list.doc(i));
+					out.writeInt(list.freq(i));
+				}
+				if (keywordPositions != null) {
+					PositionIndex.Positions p = keywordPositions[k];
+					out.writeInt(p == null ? 0 : p.length);
+					if (p != null) {
+						out.write(p.data, 0, p.length);
+					}
+				}
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * Writes an index file.
+	 *
+	 * @param indexFile Name of the index file, replaced if it exists
+	 * @param documents Document table
+	 * @param noiseWords Noise words
+	 * @param index Keywords and their posting lists
+	 * @param positions Word positions of the keywords, or null if they are not kept
+	 * @throws IOException If there is a problem writing
+	 */
+	public static void write(String indexFile, DocumentTable documents, Collection<String> noiseWords,
+			Map<String,PostingList> index, PositionIndex positions)
+	throws IOException {
+		Layout layout = new Layout(documents, noiseWords, index, positions);
+		RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+		try {
+			file.setLength(0);
+			layout.writeHeader(file, 0); // checksum filled in when the body is written
+			CRC32 crc = new CRC32();
+			layout.writeBody(new DataOutputStream(new BufferedOutputStream(
+					new CheckedOutputStream(Channels.newOutputStream(file.getChannel()), crc), 1 << 16)),
+					documents, index);
+			file.seek(CHECKSUM_OFFSET);
+			file.writeLong(crc.getValue());
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Builds an index in a direct buffer, outside the Java heap, in the same format as an
+	 * index file, and opens it. Nothing of the index is kept on the heap but the document
+	 * names and noise words read when it is opened, and keywords and posting lists are
+	 * decoded from the buffer as they are looked up. The buffer is freed when the returned
+	 * index is no longer reachable. An index of over CHUNK_BYTES takes several buffers.
+	 *
+	 * @param documents Document table
+	 * @param noiseWords Noise words
+	 * @param index Keywords and their posting lists
+	 * @param positions Word positions of the keywords, or null to leave them out
+	 * @return The index, in direct buffers
+	 * @throws IOException If there is a problem writing
+	 */
+	public static IndexFile offHeap(DocumentTable documents, Collection<String> noiseWords,
+			Map<String,PostingList> index, PositionIndex positions)
+	throws IOException {
+		Layout layout = new Layout(documents, noiseWords, index, positions);
+		final ByteBuffer[] chunks = new ByteBuffer[(int)((layout.size + CHUNK_BYTES - 1) >>> CHUNK_BITS)];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = ByteBuffer.allocateDirect((int)Math.min(CHUNK_BYTES, layout.size - ((long)i << CHUNK_BITS)));
+		}
+		OutputStream bufOut = new OutputStream() {
+			private int chunk;
+
+			public void write(int b) {
+				if (!chunks[chunk].hasRemaining()) {
+					chunk++;
+				}
+				chunks[chunk].put((byte)b);
+			}
+
+			public void write(byte[] b, int off, int len) {
+				while (len > 0) {
+					if (!chunks[chunk].hasRemaining()) {
+						chunk++;
+					}
+					int n = Math.min(len, chunks[chunk].remaining());
+					chunks[chunk].put(b, off, n);
+					off += n;
+					len -= n;
+				}
+			}
+		};
+		layout.writeHeader(new DataOutputStream(bufOut), 0);
+		CRC32 crc = new CRC32();
+		layout.writeBody(new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(bufOut, crc), 1 << 16)),
+				documents, index);
+		chunks[0].putLong(CHECKSUM_OFFSET, crc.getValue());
+		for (ByteBuffer chunk : chunks) {
+			chunk.clear();
+		}
+		return new IndexFile(chunks, false);
+	}
+
+	/**
+	 * Returns the number of bytes of the buffers the index is in.
+	 *
+	 * @return Bytes
+	 */
+	public long bytes() {
+		long bytes = 0;
+		for (ByteBuffer chunk : chunks) {
+			bytes += chunk.capacity();
+		}
+		return bytes;
+	}
+
+	private static ArrayList<String> documentNames(DocumentTable documents) {
+		ArrayList<String> names = new ArrayList<String>(documents.size());
+		for (int i = 0; i < documents.size(); i++) {
+			names.add(documents.name(i));
+		}
+		return names;
+	}
+
+	private static ArrayList<byte[]> encodeAll(Collection<String> strings) {
+		ArrayList<byte[]> encoded = new ArrayList<byte[]>(strings.size());
+		for (String s : strings) {
+			encoded.add(s == null ? null : s.getBytes(StandardCharsets.UTF_8));
+		}
+		return encoded;
+	}
+
+	private static long sizeOf(ArrayList<byte[]> strings) {
+		long size = 0;
+		for (byte[] s : strings) {
+			size += 4 + (s == null ? 0 : s.length);
+		}
+		return size;
+	}
+
+	private static void writeAll(DataOutputStream out, List<byte[]> strings)
+	throws IOException {
+		for (byte[] s : strings) {
+			if (s == null) {
+				out.writeInt(-1);
+			} else {
+				out.writeInt(s.length);
+				out.write(s);
+			}
+		}
+	}
+}
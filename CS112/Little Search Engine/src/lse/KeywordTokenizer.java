@@ -0,0 +1,495 @@
+package lse;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * Streaming keyword tokenizer for documents. Characters are fed in chunks; each
+ * whitespace separated word is collected in a reusable char buffer, checked against the
+ * keyword rules of LittleSearchEngine.getKeyword, and counted in an open addressing table
+ * keyed by the buffer contents. A String is only created when a keyword is seen for the
+ * first time in a document, so steady state tokenizing does not allocate.
+ *
+ * A tokenizer made to record positions also keeps the word positions of each keyword (see
+ * PositionIndex), gap and varint coded, in a byte buffer per table slot that is reused
+ * across documents, and hands them out with the occurrences.
+ *
+ * A tokenizer is not thread safe, but can be reused for any number of documents.
+ *
+ */
+public class KeywordTokenizer {
+
+	/**
+	 * Noise words (lower case), as an open addressing hash table. Empty slots are null.
+	 */
+	private String[] noise;
+
+	/**
+	 * Keywords of the current document, as an open addressing hash table, with
+	 * the hash code and count of each keyword in the parallel arrays.
+	 */
+	private String[] keys;
+	private int[] hashes;
+	private int[] counts;
+	private int size;
+
+	/**
+	 * Whether positions are recorded, and if so the encoded positions of each keyword, their
+	 * length, and the last position, in arrays parallel to keys.
+	 */
+	final boolean recordPositions;
+	private byte[][] positions;
+	private int[] positionLengths;
+	private int[] lastPositions;
+
+	/**
+	 * Number of words of the current document so far, keywords or not.
+	 */
+	private int wordCount;
+
+	/**
+	 * Number of words of the last finished document.
+	 */
+	int lastWordCount;
+
+	/**
+	 * Number of bytes of the last document read from a channel.
+	 */
+	long lastByteCount;
+
+	/**
+	 * The word being collected, and its length.
+	 */
+	private char[] word;
+	private int wordLength;
+
+	/**
+	 * Buffer used to read from a Reader, and to decode into from a file channel.
+	 */
+	private char[] readBuffer;
+	private CharBuffer decodeBuffer;
+
+	/**
+	 * Number of bytes of a file channel mapped at a time.
+	 */
+	static final int MAPPED_WINDOW = 64 << 20;
+
+	/**
+	 * Buffer bytes are read into from a channel, made when first needed, and its size.
+	 */
+	private ByteBuffer byteBuffer;
+	static final int READ_BYTES = 8192;
+
+	/**
+	 * Character class of each ASCII character, to skip the Character lookups in the common case.
+	 */
+	private static final byte OTHER = 0, SPACE = 1, LOWER = 2, UPPER = 3;
+	private static final byte[] ASCII = new byte[128];
+	static {
+		for (char c = 0; c < 128; c++) {
+			ASCII[c] = Character.isWhitespace(c) ? SPACE
+					: Character.isLowerCase(c) ? LOWER : Character.isUpperCase(c) ? UPPER : OTHER;
+		}
+	}
+
+	/**
+	 * Version of the noise words the noise table was built from, set by the engine that
+	 * made the tokenizer.
+	 */
+	int noiseVersion;
+
+	/**
+	 * Initializes the tokenizer with the given noise words.
+	 *
+	 * @param noiseWords Noise words, in lower case
+	 */
+	public KeywordTokenizer(Collection<String> noiseWords) {
+		this(noiseWords, false);
+	}
+
+	/**
+	 * Initializes the tokenizer with the given noise words.
+	 *
+	 * @param noiseWords Noise words, in lower case
+	 * @param recordPositions Whether to record the positions of keywords
+	 */
+	public KeywordTokenizer(Collection<String> noiseWords, boolean recordPositions) {
+		this.recordPositions = recordPositions;
+		noise = new String[tableSize(noiseWords.size())];
+		for (String w : noiseWords) {
+			int slot = hash(w) & (noise.length - 1);
+			while (noise[slot] != null && !noise[slot].equals(w)) {
+				slot = (slot + 1) & (noise.length - 1);
+			}
+			noise[slot] = w;
+		}
+		keys = new String[64];
+		hashes = new int[64];
+		counts = new int[64];
+		if (recordPositions) {
+			positions = new byte[64][];
+			positionLengths = new int[64];
+			lastPositions = new int[64];
+		}
+		word = new char[64];
+		readBuffer = new char[8192];
+		decodeBuffer = CharBuffer.wrap(readBuffer);
+	}
+
+	/**
+	 * Tokenizes everything from the given reader, and returns the keywords of the document.
+	 * The reader is not closed.
+	 *
+	 * @param in Document contents
+	 * @param docName Document name, used for the returned occurrences
+	 * @return Hash table of keywords in the document, each associated with an Occurrence object
+	 * @throws IOException If there is a problem reading
+	 */
+	public HashMap<String,Occurrence> tokenize(Reader in, String docName)
+	throws IOException {
+		reset();
+		int n;
+		while ((n = in.read(readBuffer)) != -1) {
+			feed(readBuffer, 0, n);
+		}
+		return finish(docName);
+	}
+
+	/**
+	 * Tokenizes a whole file through memory mapping, and returns the keywords of the document.
+	 * The file is mapped one window at a time and decoded in small chunks, so it is never
+	 * loaded into the heap. The channel is not closed.
+	 *
+	 * @param ch Channel of the document file
+	 * @param cs Character set of the document
+	 * @param docName Document name, used for the returned occurrences
+	 * @return Hash table of keywords in the document, each associated with an Occurrence object
+	 * @throws IOException If there is a problem mapping the file, or it is not valid in the character set
+	 */
+	public HashMap<String,Occurrence> tokenize(FileChannel ch, Charset cs, String docName)
+	throws IOException {
+		reset();
+		CharsetDecoder decoder = cs.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		long size = ch.size();
+		long pos = 0;
+		while (pos < size) {
+			long window = Math.min(MAPPED_WINDOW, size - pos);
+			MappedByteBuffer bytes = ch.map(FileChannel.MapMode.READ_ONLY, pos, window);
+			boolean last = pos + window == size;
+			while (true) {
+				decodeBuffer.clear();
+				CoderResult result = decoder.decode(bytes, decodeBuffer, last);
+				feed(readBuffer, 0, decodeBuffer.position());
+				if (result.isUnderflow()) {
+					break;
+				}
+				if (result.isError()) {
+					result.throwException();
+				}
+			}
+			// a character split across windows is decoded from the start of the next window
+			pos += bytes.position();
+			if (!last && bytes.position() == 0) {
+				throw new CharacterCodingException();
+			}
+		}
+		decodeBuffer.clear();
+		decoder.flush(decodeBuffer);
+		feed(readBuffer, 0, decodeBuffer.position());
+		return finish(docName);
+	}
+
+	/**
+	 * Tokenizes everything from the given channel, and returns the keywords of the document.
+	 * Bytes are read into a buffer of READ_BYTES and decoded into the read buffer, both reused
+	 * across documents, so a document of any size is tokenized in the same memory. The
+	 * channel is not closed.
+	 *
+	 * @param ch Document contents
+	 * @param cs Character set of the document
+	 * @param docName Document name, used for the returned occurrences
+	 * @return Hash table of keywords in the document, each associated with an Occurrence object
+	 * @throws IOException If there is a problem reading
+	 */
+	public HashMap<String,Occurrence> tokenize(ReadableByteChannel ch, Charset cs, String docName)
+	throws IOException {
+		reset();
+		CharsetDecoder decoder = cs.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		if (byteBuffer == null) {
+			byteBuffer = ByteBuffer.allocate(READ_BYTES);
+		}
+		byteBuffer.clear();
+		long bytes = 0;
+		boolean last = false;
+		while (!last) {
+			int n = ch.read(byteBuffer);
+			last = n == -1;
+			bytes += Math.max(n, 0);
+			byteBuffer.flip();
+			while (true) {
+				decodeBuffer.clear();
+				CoderResult result = decoder.decode(byteBuffer, decodeBuffer, last);
+				feed(readBuffer, 0, decodeBuffer.position());
+				if (result.isUnderflow()) {
+					break;
+				}
+				if (result.isError()) {
+					result.throwException();
+				}
+			}
+			// a character split across reads stays in the buffer for the next one
+			byteBuffer.compact();
+		}
+		decodeBuffer.clear();
+		decoder.flush(decodeBuffer);
+		feed(readBuffer, 0, decodeBuffer.position());
+		lastByteCount = bytes;
+		return finish(docName);
+	}
+
+	/**
+	 * Discards the keywords and partial word of the current document.
+	 */
+	public void reset() {
+		if (size > 0) {
+			Arrays.fill(keys, null);
+			size = 0;
+		}
+		wordLength = 0;
+		wordCount = 0;
+	}
+
+	/**
+	 * Feeds the next chunk of the current document. A word may be split across chunks.
+	 *
+	 * @param buf Characters
+	 * @param off Offset of the first character
+	 * @param len Number of characters
+	 */
+	public void feed(char[] buf, int off, int len) {
+		for (int i = off; i < off + len; i++) {
+			accept(buf[i]);
+		}
+	}
+
+	/**
+	 * Adds one character of the current document.
+	 */
+	final void accept(char c) {
+		if (c < 128 ? ASCII[c] == SPACE : Character.isWhitespace(c)) {
+			if (wordLength > 0) {
+				endWord();
+			}
+		} else {
+			if (wordLength == word.length) {
+				word = Arrays.copyOf(word, word.length * 2);
+			}
+			word[wordLength++] = c;
+		}
+	}
+
+	/**
+	 * Ends the current document, and returns its keywords.
+	 *
+	 * @param docName Document name, used for the returned occurrences
+	 * @return Hash table of keywords in the document, each associated with an Occurrence object
+	 */
+	public HashMap<String,Occurrence> finish(String docName) {
+		if (wordLength > 0) {
+			endWord();
+		}
+		HashMap<String,Occurrence> map = new HashMap<String,Occurrence>(size * 2);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				Occurrence occ = new Occurrence(docName, counts[i]);
+				if (recordPositions) {
+					occ.positions = Arrays.copyOf(positions[i], positionLengths[i]);
+				}
+				map.put(keys[i], occ);
+			}
+		}
+		lastWordCount = wordCount;
+		reset();
+		return map;
+	}
+
+	/**
+	 * Applies the keyword rules to the collected word, and counts it if it is a keyword:
+	 * trailing punctuation is stripped, the rest must be all letters, and is lower cased
+	 * and checked against the noise words.
+	 */
+	private void endWord() {
+		int len = wordLength;
+		int position = wordCount++;
+		wordLength = 0;
+		while (len > 0 && isPunctuation(word[len-1])) {
+			len--;
+		}
+		if (len == 0) {
+			return;
+		}
+		int h = 0;
+		for (int i = 0; i < len; i++) {
+			char c = word[i];
+			if (c < 128) {
+				byte type = ASCII[c];
+				if (type == UPPER) {
+					c += 'a' - 'A';
+				} else if (type != LOWER) {
+					return;
+				}
+			} else if (Character.isLetter(c)) {
+				c = Character.toLowerCase(c);
+			} else {
+				return;
+			}
+			word[i] = c;
+			h = 31*h + c;
+		}
+		if (find(noise, word, len, h) >= 0) {
+			return;
+		}
+		count(len, h, position);
+	}
+
+	/**
+	 * Counts the keyword in word[0..len-1], adding it to the table if new.
+	 */
+	private void count(int len, int h, int position) {
+		int mask = keys.length - 1;
+		int slot = spread(h) & mask;
+		while (keys[slot] != null) {
+			if (hashes[slot] == h && matches(keys[slot], word, len)) {
+				counts[slot]++;
+				if (recordPositions) {
+					addPosition(slot, position);
+				}
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = new String(word, 0, len);
+		hashes[slot] = h;
+		counts[slot] = 1;
+		if (recordPositions) {
+			positionLengths[slot] = 0;
+			lastPositions[slot] = 0;
+			addPosition(slot, position);
+		}
+		if (++size * 2 > keys.length) {
+			grow();
+		}
+	}
+
+	/**
+	 * Appends a position to the positions of the keyword in a slot.
+	 */
+	private void addPosition(int slot, int position) {
+		byte[] buf = positions[slot];
+		if (buf == null || positionLengths[slot] + 5 > buf.length) {
+			positions[slot] = buf = buf == null ? new byte[16] : Arrays.copyOf(buf, buf.length * 2);
+		}
+		positionLengths[slot] = PositionIndex.writeVarint(buf, positionLengths[slot], position - lastPositions[slot]);
+		lastPositions[slot] = position;
+	}
+
+	/**
+	 * Doubles the keyword table.
+	 */
+	private void grow() {
+		String[] oldKeys = keys;
+		int[] oldHashes = hashes;
+		int[] oldCounts = counts;
+		byte[][] oldPositions = positions;
+		int[] oldPositionLengths = positionLengths;
+		int[] oldLastPositions = lastPositions;
+		keys = new String[oldKeys.length * 2];
+		hashes = new int[keys.length];
+		counts = new int[keys.length];
+		if (recordPositions) {
+			positions = new byte[keys.length][];
+			positionLengths = new int[keys.length];
+			lastPositions = new int[keys.length];
+		}
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int slot = spread(oldHashes[i]) & mask;
+				while (keys[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				hashes[slot] = oldHashes[i];
+				counts[slot] = oldCounts[i];
+				if (recordPositions) {
+					positions[slot] = oldPositions[i];
+					positionLengths[slot] = oldPositionLengths[i];
+					lastPositions[slot] = oldLastPositions[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot of chars[0..len-1] in the given table, or -1 if it is not there.
+	 */
+	private static int find(String[] table, char[] chars, int len, int h) {
+		int mask = table.length - 1;
+		int slot = spread(h) & mask;
+		while (table[slot] != null) {
+			if (matches(table[slot], chars, len)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private static boolean matches(String s, char[] chars, int len) {
+		if (s.length() != len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (s.charAt(i) != chars[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Table index of a word, from the same hash code String.hashCode computes.
+	 */
+	private static int hash(String s) {
+		return spread(s.hashCode());
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private static int tableSize(int entries) {
+		int n = 16;
+		while (n < entries * 2) {
+			n *= 2;
+		}
+		return n;
+	}
+
+	/**
+	 * Tells if a character is one of the punctuation characters stripped from the end of words.
+	 *
+	 * @param c Character
+	 * @return True if c is '.', ',', '?', ':', ';' or '!'
+	 */
+	static boolean isPunctuation(char c) {
+		return c == '.' || c == ',' || c == '?' || c == ':' || c == ';' || c == '!';
+	}
+}
@@ -0,0 +1,944 @@
+package lse;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Benchmarks for the search engine. Run with the benchmark name and its arguments:
+ * <pre>
+ *     java lse.LSEBench tokenize docs.txt noisewords.txt [rounds]
+ *     java lse.LSEBench ingest docs.txt noisewords.txt [rounds]
+ *     java lse.LSEBench memory docs.txt noisewords.txt
+ *     java lse.LSEBench coldstart docs.txt noisewords.txt [rounds]
+ *     java lse.LSEBench shards docs.txt noisewords.txt [rounds]
+ *     java lse.LSEBench stress docs.txt noisewords.txt [readers]
+ *     java lse.LSEBench cache docs.txt noisewords.txt [rounds]
+ *     java lse.LSEBench growth docs.txt noisewords.txt [documents]
+ *     java lse.LSEBench wildcard docs.txt noisewords.txt [rounds]
+ *     java lse.LSEBench positions docs.txt noisewords.txt [rounds]
+ *     java lse.LSEBench suite docs.txt noisewords.txt [documents] [words]
+ *     java lse.LSEBench metrics docs.txt noisewords.txt [rounds]
+ *     java lse.LSEBench archive docs.txt noisewords.txt [documents]
+ *     java lse.LSEBench offheap docs.txt noisewords.txt [keywords]
+ * </pre>
+ *
+ */
+public class LSEBench {
+
+	static final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 3) {
+			System.out.println("usage: java lse.LSEBench tokenize|ingest|memory|coldstart|shards|stress|cache|growth|wildcard|positions|suite|metrics|archive|offheap <docsFile> <noiseWordsFile> [rounds]");
+			return;
+		}
+		String bench = args[0];
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+		if (bench.equals("tokenize")) {
+			tokenize(args[1], args[2], rounds);
+		} else if (bench.equals("ingest")) {
+			ingest(args[1], args[2], rounds);
+		} else if (bench.equals("memory")) {
+			memory(args[1], args[2]);
+		} else if (bench.equals("coldstart")) {
+			coldStart(args[1], args[2], rounds);
+		} else if (bench.equals("shards")) {
+			shards(args[1], args[2], rounds);
+		} else if (bench.equals("cache")) {
+			cache(args[1], args[2], rounds);
+		} else if (bench.equals("positions")) {
+			positions(args[1], args[2], rounds);
+		} else if (bench.equals("wildcard")) {
+			wildcard(args[1], args[2], rounds);
+		} else if (bench.equals("growth")) {
+			growth(args[1], args[2], args.length > 3 ? Integer.parseInt(args[3]) : 200000);
+		} else if (bench.equals("offheap")) {
+			offHeap(args[2], args.length > 3 ? Integer.parseInt(args[3]) : 1000000);
+		} else if (bench.equals("archive")) {
+			archive(args[1], args[2], args.length > 3 ? Integer.parseInt(args[3]) : 10000);
+		} else if (bench.equals("metrics")) {
+			metrics(args[1], args[2], rounds);
+		} else if (bench.equals("suite")) {
+			suite(args[1], args[2], args.length > 3 ? Integer.parseInt(args[3]) : 10000,
+					args.length > 4 ? Integer.parseInt(args[4]) : 300);
+		} else if (bench.equals("stress")) {
+			stress(args[1], args[2], args.length > 3 ? Integer.parseInt(args[3]) : 4);
+		} else {
+			System.out.println("unknown benchmark " + bench);
+		}
+	}
+
+	/**
+	 * Compares Scanner.next() + getKeyword with the KeywordTokenizer used by
+	 * loadKeywordsFromDocument, in time and bytes allocated per document.
+	 */
+	static void tokenize(String docsFile, String noiseWordsFile, int rounds)
+	throws IOException {
+		LittleSearchEngine lse = new LittleSearchEngine();
+		lse.makeIndex(docsFile, noiseWordsFile);
+		ArrayList<String> docs = readDocs(docsFile);
+		for (int r = 0; r < rounds; r++) {
+			long bytes = allocated(), start = System.nanoTime();
+			for (String doc : docs) {
+				scannerKeywords(lse, doc);
+			}
+			report("scanner", docs.size(), System.nanoTime() - start, allocated() - bytes);
+			bytes = allocated();
+			start = System.nanoTime();
+			for (String doc : docs) {
+				lse.loadKeywordsFromDocument(doc);
+			}
+			report("tokenizer", docs.size(), System.nanoTime() - start, allocated() - bytes);
+		}
+	}
+
+	/**
+	 * Compares the buffered reader and memory mapped ingest paths of loadKeywordsFromDocument,
+	 * in megabytes per second.
+	 */
+	static void ingest(String docsFile, String noiseWordsFile, int rounds)
+	throws IOException {
+		LittleSearchEngine lse = new LittleSearchEngine();
+		lse.makeIndex(docsFile, noiseWordsFile);
+		ArrayList<String> docs = readDocs(docsFile);
+		long bytes = 0;
+		for (String doc : docs) {
+			bytes += new File(doc).length();
+		}
+		double mb = bytes / (1024.0 * 1024.0);
+		for (int r = 0; r < rounds; r++) {
+			for (long threshold : new long[] { Long.MAX_VALUE, 0 }) {
+				lse.mappedReadThreshold = threshold;
+				long start = System.nanoTime();
+				for (String doc : docs) {
+					lse.loadKeywordsFromDocument(doc);
+				}
+				double secs = (System.nanoTime() - start) / 1e9;
+				System.out.printf("%-12s %8.3f sec %10.2f MB/sec%n",
+						threshold == 0 ? "mapped" : "reader", secs, mb / secs);
+			}
+		}
+	}
+
+	/**
+	 * Compares the heap bytes per posting of ArrayList&lt;Occurrence&gt; lists with PostingLists
+	 * holding the same postings.
+	 */
+	static void memory(String docsFile, String noiseWordsFile)
+	throws IOException {
+		LittleSearchEngine lse = new LittleSearchEngine();
+		lse.makeIndex(docsFile, noiseWordsFile);
+		long postings = 0;
+		for (PostingList list : lse.keywordsIndex.values()) {
+			postings += list.size();
+		}
+
+		long before = usedHeap();
+		HashMap<String,ArrayList<Occurrence>> occurrences = new HashMap<String,ArrayList<Occurrence>>();
+		for (String kw : lse.keywordsIndex.keySet()) {
+			occurrences.put(kw, lse.getOccurrences(kw));
+		}
+		long occurrenceBytes = usedHeap() - before;
+
+		before = usedHeap();
+		HashMap<String,PostingList> lists = new HashMap<String,PostingList>();
+		for (Map.Entry<String,PostingList> e : lse.keywordsIndex.entrySet()) {
+			PostingList copy = new PostingList(e.getKey());
+			for (int i = 0; i < e.getValue().size(); i++) {
+				copy.add(e.getValue().doc(i), e.getValue().freq(i));
+			}
+			lists.put(e.getKey(), copy);
+		}
+		long listBytes = usedHeap() - before;
+
+		System.out.printf("%d keywords, %d postings%n", lists.size(), postings);
+		System.out.printf("%-20s %8.1f bytes/posting%n", "ArrayList<Occurrence>", occurrenceBytes / (double)postings);
+		System.out.printf("%-20s %8.1f bytes/posting%n", "PostingList", listBytes / (double)postings);
+		// keeps everything measured reachable until here
+		if (occurrences.size() != lists.size() || lse.keywordsIndex.size() != lists.size()) {
+			throw new IllegalStateException();
+		}
+	}
+
+	/**
+	 * Compares the time to the first search answer of a full rebuild with makeIndex, and of
+	 * loadIndex on a saved index file.
+	 */
+	static void coldStart(String docsFile, String noiseWordsFile, int rounds)
+	throws IOException {
+		File indexFile = File.createTempFile("lse", ".idx");
+		indexFile.deleteOnExit();
+		LittleSearchEngine lse = new LittleSearchEngine();
+		lse.makeIndex(docsFile, noiseWordsFile);
+		lse.saveIndex(indexFile.getPath());
+		ArrayList<String> keywords = new ArrayList<String>(lse.keywordsIndex.keySet());
+		String kw1 = keywords.get(0), kw2 = keywords.get(keywords.size() - 1);
+		System.out.printf("index file %d bytes%n", indexFile.length());
+		for (int r = 0; r < rounds; r++) {
+			long start = System.nanoTime();
+			lse = new LittleSearchEngine();
+			lse.makeIndex(docsFile, noiseWordsFile);
+			ArrayList<String> rebuilt = lse.top5search(kw1, kw2);
+			System.out.printf("%-12s %10.3f ms%n", "rebuild", (System.nanoTime() - start) / 1e6);
+
+			start = System.nanoTime();
+			lse = new LittleSearchEngine();
+			lse.loadIndex(indexFile.getPath());
+			ArrayList<String> loaded = lse.top5search(kw1, kw2);
+			System.out.printf("%-12s %10.3f ms%n", "loadIndex", (System.nanoTime() - start) / 1e6);
+			if (!rebuilt.equals(loaded)) {
+				throw new IllegalStateException(rebuilt + " != " + loaded);
+			}
+		}
+	}
+
+	/**
+	 * Compares the query latency of a single index with sharded indexes of 2, 4 and 8 shards,
+	 * on random four keyword top 10 searches, and checks that all give the same results.
+	 */
+	static void shards(String docsFile, String noiseWordsFile, int rounds)
+	throws IOException {
+		LittleSearchEngine single = new LittleSearchEngine();
+		single.makeIndex(docsFile, noiseWordsFile);
+		ArrayList<String> keywords = new ArrayList<String>(single.keywordsIndex.keySet());
+		Random random = new Random(1);
+		String[][] queries = new String[1000][4];
+		for (String[] query : queries) {
+			for (int i = 0; i < query.length; i++) {
+				query[i] = keywords.get(random.nextInt(keywords.size()));
+			}
+		}
+		for (int shardCount : new int[] { 1, 2, 4, 8 }) {
+			ShardedSearchEngine sharded = new ShardedSearchEngine(shardCount);
+			sharded.makeIndex(docsFile, noiseWordsFile);
+			for (int r = 0; r < rounds; r++) {
+				long start = System.nanoTime();
+				for (String[] query : queries) {
+					sharded.topKSearch(10, query);
+				}
+				System.out.printf("%d shards %10.1f us/query%n",
+						shardCount, (System.nanoTime() - start) / 1e3 / queries.length);
+			}
+			for (String[] query : queries) {
+				if (!sharded.topKSearch(10, query).equals(single.topKSearch(10, query))) {
+					throw new IllegalStateException("results differ for " + Arrays.toString(query));
+				}
+			}
+			sharded.shutdown();
+		}
+	}
+
+	/**
+	 * Compares top5search latency percentiles with and without the query cache, on a skewed
+	 * stream of keyword pairs (pair i is asked with probability proportional to 1/(i+1)), with
+	 * one document updated every 1000 queries. Checks that cached and uncached results agree.
+	 */
+	static void cache(String docsFile, String noiseWordsFile, int rounds)
+	throws IOException {
+		ArrayList<String> docs = readDocs(docsFile);
+		LittleSearchEngine cached = new LittleSearchEngine();
+		cached.makeIndex(docsFile, noiseWordsFile);
+		LittleSearchEngine uncached = new LittleSearchEngine();
+		uncached.makeIndex(docsFile, noiseWordsFile);
+		uncached.setQueryCacheSize(0, 0);
+		ArrayList<String> keywords = new ArrayList<String>(cached.keywordsIndex.keySet());
+		Random random = new Random(1);
+		String[][] pairs = new String[500][2];
+		double[] cumulative = new double[pairs.length];
+		for (int i = 0; i < pairs.length; i++) {
+			pairs[i][0] = keywords.get(random.nextInt(keywords.size()));
+			pairs[i][1] = keywords.get(random.nextInt(keywords.size()));
+			cumulative[i] = (i == 0 ? 0 : cumulative[i-1]) + 1.0 / (i + 1);
+		}
+		int[] stream = new int[100000];
+		for (int q = 0; q < stream.length; q++) {
+			int i = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[pairs.length - 1]);
+			stream[q] = i < 0 ? -i - 1 : i;
+		}
+		long[] nanos = new long[stream.length];
+		for (int r = 0; r < rounds; r++) {
+			for (LittleSearchEngine lse : new LittleSearchEngine[] { uncached, cached }) {
+				for (int q = 0; q < stream.length; q++) {
+					if (q % 1000 == 999) {
+						lse.updateDocument(docs.get(q / 1000 % docs.size()));
+					}
+					long start = System.nanoTime();
+					lse.top5search(pairs[stream[q]][0], pairs[stream[q]][1]);
+					nanos[q] = System.nanoTime() - start;
+				}
+				Arrays.sort(nanos);
+				System.out.printf("%-10s p50 %8.2f us  p90 %8.2f us  p99 %8.2f us%n", lse == cached ? "cached" : "uncached",
+						nanos[nanos.length / 2] / 1e3, nanos[nanos.length * 9 / 10] / 1e3, nanos[nanos.length * 99 / 100] / 1e3);
+			}
+		}
+		System.out.println(cached.queryCache());
+		for (String[] pair : pairs) {
+			if (!cached.top5search(pair[0], pair[1]).equals(uncached.top5search(pair[0], pair[1]))) {
+				throw new IllegalStateException("results differ for " + Arrays.toString(pair));
+			}
+		}
+	}
+
+	/**
+	 * Compares the build time and heap size of the index with and without positions, and
+	 * reports the latency of two keyword phrase and proximity searches, on keyword pairs taken
+	 * from adjacent words of the documents.
+	 */
+	static void positions(String docsFile, String noiseWordsFile, int rounds)
+	throws IOException {
+		// heap taken by building each index, before any search builds its caches
+		new LittleSearchEngine().makeIndex(docsFile, noiseWordsFile);
+		long before = usedHeap();
+		LittleSearchEngine plain = new LittleSearchEngine();
+		plain.makeIndex(docsFile, noiseWordsFile);
+		long plainBytes = usedHeap() - before;
+		before = usedHeap();
+		LittleSearchEngine positional = new LittleSearchEngine();
+		positional.setPositional(true);
+		positional.makeIndex(docsFile, noiseWordsFile);
+		long positionalBytes = usedHeap() - before;
+		System.out.printf("heap  %-12s %10d bytes%n", "plain", plainBytes);
+		System.out.printf("heap  %-12s %10d bytes (position streams %d bytes)%n", "positional",
+				positionalBytes, positional.positions.bytes());
+
+		for (int r = 0; r < rounds; r++) {
+			long start = System.nanoTime();
+			plain = new LittleSearchEngine();
+			plain.makeIndex(docsFile, noiseWordsFile);
+			long plainNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			positional = new LittleSearchEngine();
+			positional.setPositional(true);
+			positional.makeIndex(docsFile, noiseWordsFile);
+			long positionalNanos = System.nanoTime() - start;
+			System.out.printf("build %-12s %10.3f ms%n", "plain", plainNanos / 1e6);
+			System.out.printf("build %-12s %10.3f ms%n", "positional", positionalNanos / 1e6);
+		}
+
+		// phrases of two adjacent keywords
+		ArrayList<String> phrases = new ArrayList<String>();
+		for (String doc : readDocs(docsFile)) {
+			Scanner sc = new Scanner(new File(doc));
+			String prev = null;
+			for (int pairs = 0; sc.hasNext() && phrases.size() < 1000; ) {
+				String word = positional.getKeyword(sc.next());
+				if (prev != null && word != null && pairs++ % 7 == 0) {
+					phrases.add(prev + " " + word);
+				}
+				prev = word;
+			}
+			sc.close();
+		}
+		for (int r = 0; r < rounds; r++) {
+			long found = 0, start = System.nanoTime();
+			for (String phrase : phrases) {
+				found += positional.phraseSearch(phrase, 10).size();
+			}
+			long phraseNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (String phrase : phrases) {
+				String[] kws = phrase.split(" ");
+				positional.proximitySearch(kws[0], kws[1], 5, 10);
+			}
+			long proximityNanos = System.nanoTime() - start;
+			System.out.printf("%d phrases, %.1f docs each: phrase %8.2f us, proximity %8.2f us%n", phrases.size(),
+					found / (double)phrases.size(), phraseNanos / 1e3 / phrases.size(), proximityNanos / 1e3 / phrases.size());
+		}
+		// keeps both indexes reachable until here
+		if (plain.keywordsIndex.size() != positional.keywordsIndex.size()) {
+			throw new IllegalStateException();
+		}
+	}
+
+	/**
+	 * Reports the size of the keyword dictionary against the keywords as Strings, and the
+	 * time to expand prefix patterns of one, two and three letters (taken from keywords of
+	 * the index) and search with them. Checks the expansions against a scan of all keywords.
+	 */
+	static void wildcard(String docsFile, String noiseWordsFile, int rounds)
+	throws IOException {
+		LittleSearchEngine lse = new LittleSearchEngine();
+		lse.makeIndex(docsFile, noiseWordsFile);
+		lse.setQueryCacheSize(0, 0);
+		ArrayList<String> keywords = new ArrayList<String>(lse.keywordsIndex.keySet());
+		Collections.sort(keywords);
+		long stringBytes = 0;
+		for (String keyword : keywords) {
+			stringBytes += 48 + 2L * keyword.length();
+		}
+		TermDictionary dictionary = new TermDictionary(keywords);
+		System.out.printf("%d keywords, dictionary %d bytes, Strings %d bytes%n",
+				keywords.size(), dictionary.bytes(), stringBytes);
+		Random random = new Random(1);
+		for (int length = 1; length <= 3; length++) {
+			String[] patterns = new String[1000];
+			for (int i = 0; i < patterns.length; i++) {
+				String keyword = keywords.get(random.nextInt(keywords.size()));
+				patterns[i] = keyword.substring(0, Math.min(length, keyword.length())) + "*";
+			}
+			for (int r = 0; r < rounds; r++) {
+				long terms = 0, start = System.nanoTime();
+				for (String pattern : patterns) {
+					terms += lse.expandKeyword(pattern).size();
+				}
+				long expand = System.nanoTime() - start;
+				start = System.nanoTime();
+				for (String pattern : patterns) {
+					lse.wildcardSearch(10, pattern);
+				}
+				long search = System.nanoTime() - start;
+				System.out.printf("prefix %d: %6.1f terms, expand %8.2f us, search %8.2f us%n", length,
+						terms / (double)patterns.length, expand / 1e3 / patterns.length, search / 1e3 / patterns.length);
+			}
+			for (String pattern : patterns) {
+				ArrayList<String> expected = new ArrayList<String>();
+				String prefix = pattern.substring(0, pattern.length() - 1);
+				for (String keyword : keywords) {
+					if (keyword.startsWith(prefix) && expected.size() < lse.maxExpansions) {
+						expected.add(keyword);
+					}
+				}
+				if (!expected.equals(lse.expandKeyword(pattern))) {
+					throw new IllegalStateException("expansions differ for " + pattern);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merges the given number of synthetic documents into an empty index with mergeKeywords,
+	 * and reports the merge throughput of each tenth of them, to show whether ingest slows
+	 * down as posting lists grow. Each document has 100 words drawn from the keywords of the
+	 * docs file with Zipf frequencies (the i-th most frequent keyword with probability
+	 * proportional to 1/(i+1)), so the most common keywords end up in nearly every document.
+	 */
+	static void growth(String docsFile, String noiseWordsFile, int documents)
+	throws IOException {
+		LittleSearchEngine vocabulary = new LittleSearchEngine();
+		vocabulary.makeIndex(docsFile, noiseWordsFile);
+		String[] words = zipfVocabulary(vocabulary);
+		double[] cumulative = new double[words.length];
+		for (int i = 0; i < words.length; i++) {
+			cumulative[i] = (i == 0 ? 0 : cumulative[i-1]) + 1.0 / (i + 1);
+		}
+
+		LittleSearchEngine lse = new LittleSearchEngine();
+		Random random = new Random(1);
+		int step = Math.max(documents / 10, 1);
+		ArrayList<HashMap<String,Occurrence>> chunk = new ArrayList<HashMap<String,Occurrence>>();
+		for (int from = 0; from < documents; from += step) {
+			chunk.clear();
+			for (int d = from; d < Math.min(from + step, documents); d++) {
+				HashMap<String,Occurrence> kws = new HashMap<String,Occurrence>();
+				for (int w = 0; w < 100; w++) {
+					int i = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[words.length - 1]);
+					String word = words[i < 0 ? -i - 1 : i];
+					Occurrence occ = kws.get(word);
+					if (occ == null) {
+						kws.put(word, new Occurrence("doc" + d, 1));
+					} else {
+						occ.frequency++;
+					}
+				}
+				chunk.add(kws);
+			}
+			long start = System.nanoTime();
+			for (HashMap<String,Occurrence> kws : chunk) {
+				lse.mergeKeywords(kws);
+			}
+			long nanos = System.nanoTime() - start;
+			System.out.printf("docs %8d..%-8d %10.1f docs/sec%n", from, from + chunk.size(), chunk.size() / (nanos / 1e9));
+		}
+	}
+
+	/**
+	 * Writes a synthetic collection of the given number of documents, of the given mean
+	 * number of words, drawn from the words of the documents of the docs file with Zipf
+	 * frequencies (see ZipfCorpus), to a temporary directory, and measures each step of
+	 * indexing and searching on it:
+	 * <ul>
+	 * <li>getKeyword, in ns per word, over every word of the collection</li>
+	 * <li>loadKeywordsFromDocument, in documents per second and bytes allocated per document</li>
+	 * <li>makeIndex, the same, counting what the indexing thread allocates</li>
+	 * <li>insertLastOccurrence, in ns per insert, into lists of 16 to 65536 occurrences</li>
+	 * <li>top5search latency percentiles, without the query cache, for keyword pairs whose
+	 * longer posting list is in each power of 10 range of lengths</li>
+	 * </ul>
+	 * Each measurement is taken after a warm up run of the same work.
+	 */
+	static void suite(String docsFile, String noiseWordsFile, int documents, int words)
+	throws IOException {
+		File dir = java.nio.file.Files.createTempDirectory("lse-suite").toFile();
+		long start = System.nanoTime();
+		ZipfCorpus corpus = new ZipfCorpus(readDocs(docsFile), 1.0);
+		String corpusDocs = corpus.write(dir, documents, words, 1).getPath();
+		System.out.printf("corpus       %d documents, %d words each on average, %d seed words, in %s (%.1f sec)%n",
+				documents, words, corpus.vocabularySize(), dir, (System.nanoTime() - start) / 1e9);
+		ArrayList<String> docs = readDocs(corpusDocs);
+		try {
+			LittleSearchEngine lse = new LittleSearchEngine();
+			lse.makeIndex(corpusDocs, noiseWordsFile);
+
+			ArrayList<String> tokens = new ArrayList<String>();
+			for (int d = 0; d < docs.size() && tokens.size() < 1000000; d++) {
+				Scanner sc = new Scanner(new File(docs.get(d)));
+				while (sc.hasNext()) {
+					tokens.add(sc.next());
+				}
+				sc.close();
+			}
+			for (int r = 0; r < 2; r++) {
+				int keywords = 0;
+				start = System.nanoTime();
+				for (String token : tokens) {
+					if (lse.getKeyword(token) != null) {
+						keywords++;
+					}
+				}
+				if (r == 1) {
+					System.out.printf("getKeyword   %8.1f ns/word (%d words, %d keywords)%n",
+							(System.nanoTime() - start) / (double)tokens.size(), tokens.size(), keywords);
+				}
+			}
+
+			for (int r = 0; r < 2; r++) {
+				long bytes = allocated();
+				start = System.nanoTime();
+				for (String doc : docs) {
+					lse.loadKeywordsFromDocument(doc);
+				}
+				if (r == 1) {
+					report("load", docs.size(), System.nanoTime() - start, allocated() - bytes);
+				}
+			}
+
+			for (int r = 0; r < 2; r++) {
+				lse = new LittleSearchEngine();
+				long bytes = allocated();
+				start = System.nanoTime();
+				lse.makeIndex(corpusDocs, noiseWordsFile);
+				if (r == 1) {
+					report("makeIndex", docs.size(), System.nanoTime() - start, allocated() - bytes);
+				}
+			}
+
+			Random random = new Random(1);
+			for (int n = 16; n <= 65536; n *= 16) {
+				for (int r = 0; r < 2; r++) {
+					int[] freqs = new int[n];
+					for (int i = 0; i < n; i++) {
+						freqs[i] = 1 + random.nextInt(n);
+					}
+					Arrays.sort(freqs);
+					ArrayList<Occurrence> occs = new ArrayList<Occurrence>(n + 1000);
+					for (int i = n - 1; i >= 0; i--) {
+						occs.add(new Occurrence("doc" + i, freqs[i]));
+					}
+					Occurrence[] inserts = new Occurrence[1000];
+					for (int i = 0; i < inserts.length; i++) {
+						inserts[i] = new Occurrence("new" + i, 1 + random.nextInt(n));
+					}
+					start = System.nanoTime();
+					for (Occurrence occ : inserts) {
+						occs.add(occ);
+						lse.insertLastOccurrence(occs);
+					}
+					if (r == 1) {
+						System.out.printf("insertLast   %8.1f ns/op into %d occurrences%n",
+								(System.nanoTime() - start) / (double)inserts.length, n);
+					}
+				}
+			}
+
+			lse.setQueryCacheSize(0, 0);
+			ArrayList<ArrayList<String>> buckets = new ArrayList<ArrayList<String>>();
+			for (PostingList list : lse.keywordsIndex.values()) {
+				int bucket = (int)Math.log10(list.size());
+				while (buckets.size() <= bucket) {
+					buckets.add(new ArrayList<String>());
+				}
+				buckets.get(bucket).add(list.keyword);
+			}
+			for (int b = 0; b < buckets.size(); b++) {
+				ArrayList<String> bucket = buckets.get(b);
+				if (bucket.isEmpty()) {
+					continue;
+				}
+				// pairs of a keyword of this bucket and one of the same or a shorter bucket
+				int queries = 2000;
+				long[] nanos = new long[queries];
+				for (int r = 0; r < 2; r++) {
+					for (int q = 0; q < queries; q++) {
+						String kw1 = bucket.get(random.nextInt(bucket.size()));
+						ArrayList<String> other = buckets.get(random.nextInt(b + 1));
+						String kw2 = other.isEmpty() ? kw1 : other.get(random.nextInt(other.size()));
+						start = System.nanoTime();
+						lse.top5search(kw1, kw2);
+						nanos[q] = System.nanoTime() - start;
+					}
+				}
+				Arrays.sort(nanos);
+				System.out.printf("top5search   postings %6d..%-6d %5d keywords  p50 %8.1f us  p90 %8.1f us  p99 %8.1f us  max %8.1f us%n",
+						(int)Math.pow(10, b), (int)Math.pow(10, b + 1) - 1, bucket.size(),
+						nanos[queries / 2] / 1e3, nanos[queries * 9 / 10] / 1e3,
+						nanos[queries * 99 / 100] / 1e3, nanos[queries - 1] / 1e3);
+			}
+		} finally {
+			for (String doc : docs) {
+				new File(doc).delete();
+			}
+			new File(corpusDocs).delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Indexes synthetic documents with about the given number of distinct keywords (random
+	 * letter strings, 100 per document, drawn with Zipf frequencies), then measures the heap in
+	 * use, the time of a full collection, and the collections and latency of 200000 top 5
+	 * searches, with the index on the heap and after moveOffHeap.
+	 */
+	static void offHeap(String noiseWordsFile, int keywords)
+	throws IOException {
+		Random random = new Random(1);
+		HashSet<String> vocabulary = new HashSet<String>();
+		while (vocabulary.size() < keywords) {
+			char[] word = new char[4 + random.nextInt(7)];
+			for (int i = 0; i < word.length; i++) {
+				word[i] = (char)('a' + random.nextInt(26));
+			}
+			vocabulary.add(new String(word));
+		}
+		String[] words = vocabulary.toArray(new String[vocabulary.size()]);
+		vocabulary = null;
+		double[] cumulative = new double[words.length];
+		for (int i = 0; i < words.length; i++) {
+			cumulative[i] = (i == 0 ? 0 : cumulative[i-1]) + 1.0 / (i + 1);
+		}
+
+		LittleSearchEngine lse = new LittleSearchEngine();
+		lse.loadNoiseWords(noiseWordsFile);
+		long start = System.nanoTime();
+		// enough documents for every keyword to come up about once in the tail
+		int documents = Math.max(keywords / 10, 1);
+		for (int d = 0; d < documents; d++) {
+			HashMap<String,Occurrence> kws = new HashMap<String,Occurrence>();
+			for (int w = 0; w < 100; w++) {
+				int i = w < 10 ? random.nextInt(words.length)
+						: Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[words.length - 1]);
+				String word = words[i < 0 ? -i - 1 : i];
+				Occurrence occ = kws.get(word);
+				if (occ == null) {
+					kws.put(word, new Occurrence("doc" + d, 1));
+				} else {
+					occ.frequency++;
+				}
+			}
+			lse.mergeKeywords(kws);
+		}
+		System.out.printf("indexed %d documents, %d keywords in %.1f sec%n",
+				documents, lse.keywordsIndex.size(), (System.nanoTime() - start) / 1e9);
+		cumulative = null;
+		String[] queries = new String[400000];
+		for (int q = 0; q < queries.length; q++) {
+			queries[q] = words[random.nextInt(words.length)];
+		}
+		words = null;
+		for (PostingList list : lse.keywordsIndex.values()) {
+			list.trim();
+		}
+
+		for (boolean off : new boolean[] { false, true }) {
+			if (off) {
+				start = System.nanoTime();
+				long bytes = lse.moveOffHeap();
+				System.out.printf("moved %.1f MB off the heap in %.1f sec%n", bytes / 1048576.0, (System.nanoTime() - start) / 1e9);
+			}
+			long heap = usedHeap();
+			start = System.nanoTime();
+			System.gc();
+			long fullGc = System.nanoTime() - start;
+			long direct = 0;
+			for (java.lang.management.BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(java.lang.management.BufferPoolMXBean.class)) {
+				if (pool.getName().equals("direct")) {
+					direct = pool.getMemoryUsed();
+				}
+			}
+			long collections = 0, collectionMillis = 0;
+			for (java.lang.management.GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				collections -= gc.getCollectionCount();
+				collectionMillis -= gc.getCollectionTime();
+			}
+			long[] nanos = new long[queries.length / 2];
+			for (int q = 0; q < nanos.length; q++) {
+				long t = System.nanoTime();
+				lse.top5search(queries[2*q], queries[2*q + 1]);
+				nanos[q] = System.nanoTime() - t;
+			}
+			for (java.lang.management.GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				collections += gc.getCollectionCount();
+				collectionMillis += gc.getCollectionTime();
+			}
+			Arrays.sort(nanos);
+			System.out.printf("%-9s heap %8.1f MB  direct %8.1f MB  full gc %7.1f ms  searches: %d gcs, %d ms in gc, p50 %.1f us, p99 %.1f us, max %.1f us%n",
+					off ? "off heap" : "on heap", heap / 1048576.0, direct / 1048576.0, fullGc / 1e6,
+					collections, collectionMillis, nanos[nanos.length / 2] / 1e3, nanos[nanos.length * 99 / 100] / 1e3,
+					nanos[nanos.length - 1] / 1e3);
+		}
+	}
+
+	/**
+	 * Writes a synthetic collection (see ZipfCorpus) to a temporary directory, and the same
+	 * documents to a zip archive, and compares indexing the files with makeIndex with
+	 * indexing the archive stream with addArchive, in documents per second and bytes
+	 * allocated per document.
+	 */
+	static void archive(String docsFile, String noiseWordsFile, int documents)
+	throws IOException {
+		File dir = java.nio.file.Files.createTempDirectory("lse-archive").toFile();
+		String corpusDocs = new ZipfCorpus(readDocs(docsFile), 1.0).write(dir, documents, 300, 1).getPath();
+		ArrayList<String> docs = readDocs(corpusDocs);
+		File zip = new File(dir, "docs.zip");
+		try {
+			java.util.zip.ZipOutputStream out = new java.util.zip.ZipOutputStream(
+					new BufferedOutputStream(new FileOutputStream(zip)));
+			byte[] buf = new byte[8192];
+			for (String doc : docs) {
+				out.putNextEntry(new java.util.zip.ZipEntry(new File(doc).getName()));
+				InputStream in = new FileInputStream(doc);
+				int n;
+				while ((n = in.read(buf)) != -1) {
+					out.write(buf, 0, n);
+				}
+				in.close();
+			}
+			out.close();
+			new File(dir, "none.txt").createNewFile();
+			for (int r = 0; r < 3; r++) {
+				LittleSearchEngine lse = new LittleSearchEngine();
+				long bytes = allocated(), start = System.nanoTime();
+				lse.makeIndex(corpusDocs, noiseWordsFile);
+				report("files", docs.size(), System.nanoTime() - start, allocated() - bytes);
+				lse = new LittleSearchEngine();
+				lse.makeIndex(new File(dir, "none.txt").getPath(), noiseWordsFile);
+				bytes = allocated();
+				start = System.nanoTime();
+				int added = lse.addArchive(zip.getPath());
+				report("zip stream", added, System.nanoTime() - start, allocated() - bytes);
+			}
+		} finally {
+			for (String doc : docs) {
+				new File(doc).delete();
+			}
+			new File(corpusDocs).delete();
+			new File(dir, "none.txt").delete();
+			zip.delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Compares indexing and top 5 search time without metrics and with StandardMetrics, to
+	 * show the cost of leaving them on, and prints what the metrics recorded.
+	 */
+	static void metrics(String docsFile, String noiseWordsFile, int rounds)
+	throws IOException {
+		LittleSearchEngine vocabulary = new LittleSearchEngine();
+		vocabulary.makeIndex(docsFile, noiseWordsFile);
+		String[] words = zipfVocabulary(vocabulary);
+		StandardMetrics metrics = null;
+		for (int r = 0; r < rounds; r++) {
+			for (boolean on : new boolean[] { false, true }) {
+				LittleSearchEngine lse = new LittleSearchEngine();
+				lse.setQueryCacheSize(0, 0);
+				if (on) {
+					metrics = new StandardMetrics(lse);
+					lse.setMetrics(metrics);
+				}
+				long start = System.nanoTime();
+				lse.makeIndex(docsFile, noiseWordsFile);
+				long index = System.nanoTime() - start;
+				Random random = new Random(1);
+				start = System.nanoTime();
+				for (int q = 0; q < 100000; q++) {
+					lse.top5search(words[random.nextInt(words.length)], words[random.nextInt(words.length)]);
+				}
+				long search = System.nanoTime() - start;
+				System.out.printf("%-12s index %8.3f ms  search %8.1f ns/query%n",
+						on ? "metrics" : "none", index / 1e6, search / 1e5);
+			}
+		}
+		System.out.println(metrics);
+		System.out.println("top 5 search latency (ns): " + metrics.latencies(EngineMetrics.Search.TOP_K));
+		System.out.println("posting list lengths by power of 2: " + Arrays.toString(metrics.getPostingListLengths()));
+	}
+
+	/**
+	 * Keywords of an index, most frequent first.
+	 */
+	static String[] zipfVocabulary(LittleSearchEngine lse) {
+		final HashMap<String,Long> totals = new HashMap<String,Long>();
+		for (PostingList list : lse.keywordsIndex.values()) {
+			long total = 0;
+			for (int i = 0; i < list.size(); i++) {
+				total += list.freq(i);
+			}
+			totals.put(list.keyword, total);
+		}
+		String[] words = totals.keySet().toArray(new String[totals.size()]);
+		Arrays.sort(words, new Comparator<String>() {
+			public int compare(String a, String b) {
+				int c = Long.compare(totals.get(b), totals.get(a));
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+		return words;
+	}
+
+	/**
+	 * Adds the documents one at a time on one thread while the given number of threads run
+	 * top 10 searches, and checks that every search answers as the index did after some number
+	 * of added documents between the start and the end of the search. Reports the search
+	 * latency and the indexing time.
+	 */
+	static void stress(String docsFile, String noiseWordsFile, int readers)
+	throws IOException {
+		final ArrayList<String> docs = readDocs(docsFile);
+		LittleSearchEngine full = new LittleSearchEngine();
+		full.makeIndex(docsFile, noiseWordsFile);
+		ArrayList<String> keywords = new ArrayList<String>(full.keywordsIndex.keySet());
+		Random random = new Random(1);
+		final String[][] queries = new String[50][3];
+		for (String[] query : queries) {
+			for (int i = 0; i < query.length; i++) {
+				query[i] = keywords.get(random.nextInt(keywords.size()));
+			}
+		}
+
+		// expected results after each number of added documents
+		final ArrayList<ArrayList<ArrayList<String>>> expected = new ArrayList<ArrayList<ArrayList<String>>>();
+		LittleSearchEngine partial = new LittleSearchEngine();
+		partial.loadNoiseWords(noiseWordsFile);
+		for (int v = 0; v <= docs.size(); v++) {
+			if (v > 0) {
+				partial.addDocument(docs.get(v - 1));
+			}
+			ArrayList<ArrayList<String>> results = new ArrayList<ArrayList<String>>();
+			for (String[] query : queries) {
+				results.add(partial.topKSearch(10, query));
+			}
+			expected.add(results);
+		}
+
+		final LittleSearchEngine lse = new LittleSearchEngine();
+		lse.loadNoiseWords(noiseWordsFile);
+		final java.util.concurrent.atomic.AtomicInteger added = new java.util.concurrent.atomic.AtomicInteger();
+		final java.util.concurrent.atomic.AtomicLong searches = new java.util.concurrent.atomic.AtomicLong();
+		final java.util.concurrent.atomic.AtomicLong searchNanos = new java.util.concurrent.atomic.AtomicLong();
+		final java.util.concurrent.atomic.AtomicReference<String> failure = new java.util.concurrent.atomic.AtomicReference<String>();
+		Thread[] threads = new Thread[readers];
+		for (int t = 0; t < readers; t++) {
+			final int seed = t;
+			threads[t] = new Thread() {
+				public void run() {
+					Random r = new Random(seed);
+					while (added.get() < docs.size() && failure.get() == null) {
+						int q = r.nextInt(queries.length);
+						int from = added.get();
+						long start = System.nanoTime();
+						ArrayList<String> result = lse.topKSearch(10, queries[q]);
+						searchNanos.addAndGet(System.nanoTime() - start);
+						searches.incrementAndGet();
+						int to = Math.min(added.get() + 1, docs.size());
+						boolean found = false;
+						for (int v = from; v <= to && !found; v++) {
+							found = expected.get(v).get(q).equals(result);
+						}
+						if (!found) {
+							failure.set(Arrays.toString(queries[q]) + " gave " + result
+									+ " between " + from + " and " + to + " documents");
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		long start = System.nanoTime();
+		for (String doc : docs) {
+			lse.addDocument(doc);
+			added.incrementAndGet();
+		}
+		long indexNanos = System.nanoTime() - start;
+		for (Thread t : threads) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		if (failure.get() != null) {
+			throw new IllegalStateException(failure.get());
+		}
+		System.out.printf("%d docs indexed in %.3f ms with %d readers%n", docs.size(), indexNanos / 1e6, readers);
+		System.out.printf("%d searches, %.1f us/search%n",
+				searches.get(), searchNanos.get() / 1e3 / Math.max(searches.get(), 1));
+	}
+
+	/**
+	 * Heap in use after a full collection.
+	 */
+	static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/**
+	 * The document loading done before KeywordTokenizer.
+	 */
+	static HashMap<String,Occurrence> scannerKeywords(LittleSearchEngine lse, String docFile)
+	throws FileNotFoundException {
+		HashMap<String,Occurrence> map = new HashMap<String,Occurrence>();
+		Scanner s = new Scanner(new File(docFile));
+		while (s.hasNext()) {
+			String word = lse.getKeyword(s.next());
+			if (word != null) {
+				if (map.containsKey(word))
+					map.get(word).frequency++;
+				else
+					map.put(word, new Occurrence(docFile, 1));
+			}
+		}
+		s.close();
+		return map;
+	}
+
+	static ArrayList<String> readDocs(String docsFile)
+	throws FileNotFoundException {
+		ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			docs.add(sc.next());
+		}
+		sc.close();
+		return docs;
+	}
+
+	/**
+	 * Bytes allocated so far by the calling thread.
+	 */
+	static long allocated() {
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	static void report(String name, int docs, long nanos, long bytes) {
+		System.out.printf("%-12s %8.3f ms %10.1f docs/sec %12d bytes/doc%n",
+				name, nanos / 1e6, docs / (nanos / 1e9), bytes / Math.max(docs, 1));
+	}
+}
@@ -0,0 +1,129 @@
+package lse;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Histogram of non-negative values, such as latencies in nanoseconds, with log-linear buckets
+ * in the manner of HdrHistogram: values below 2*SUB_BUCKETS each have their own bucket, and
+ * every power of 2 range above that is split into SUB_BUCKETS equal buckets. So a value is
+ * known to within 1/SUB_BUCKETS (about 3%) of itself, whatever its size, with a fixed 1888
+ * buckets for all long values. Recording is an array index computation and a few atomic
+ * adds, without locking, so any number of threads may record at once.
+ *
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Buckets per power of 2.
+	 */
+	static final int SUB_BUCKETS = 32;
+	static final int SUB_BITS = 5;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB_BUCKETS);
+	private final AtomicLong count = new AtomicLong(), sum = new AtomicLong(), max = new AtomicLong();
+
+	/**
+	 * Returns the bucket of a value.
+	 */
+	static int bucket(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int)value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return shift * SUB_BUCKETS + (int)(value >>> shift);
+	}
+
+	/**
+	 * Returns the highest value of a bucket.
+	 */
+	static long highest(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		return ((long)(bucket - shift * SUB_BUCKETS + 1) << shift) - 1;
+	}
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value Value; negative values count as 0
+	 */
+	public void record(long value) {
+		value = Math.max(value, 0);
+		counts.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long m;
+		while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+			// another thread raised the max; try again
+		}
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 */
+	public long count() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the mean of the values recorded.
+	 *
+	 * @return Mean, 0 if there are none
+	 */
+	public double mean() {
+		long n = count.get();
+		return n == 0 ? 0 : sum.get() / (double)n;
+	}
+
+	/**
+	 * Returns the largest value recorded.
+	 *
+	 * @return Largest value, 0 if there are none
+	 */
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the value below which the given percentage of the recorded values are, to
+	 * within the precision of the buckets. Values recorded while this runs may or may not
+	 * be counted.
+	 *
+	 * @param percentile Percentage, 0 to 100
+	 * @return Highest value of the bucket the percentile is in, at most max(); 0 if there are no values
+	 */
+	public long percentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+		long rank = (long)Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100);
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= Math.max(rank, 1)) {
+				return Math.min(highest(i), max());
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Forgets all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	public String toString() {
+		return String.format("%d values, mean %.1f, p50 %d, p90 %d, p99 %d, max %d",
+				count(), mean(), percentile(50), percentile(90), percentile(99), max());
+	}
+}
@@ -1,83 +1,749 @@
 package lse;
 
 import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * This class builds an index of keywords. Each keyword maps to a set of pages in
  * which it occurs, with frequency of occurrence in each page.
+ * 
+ * Searches may run on any number of threads while documents are being indexed. Searches
+ * hold a read lock and changes to the index a write lock, so every search sees the index
+ * as it was between two changes. Documents are read and tokenized outside the lock; only
+ * merging their keywords (one document, or one batch of the parallel makeIndex, at a time)
+ * keeps searches waiting.
  *
  */
 public class LittleSearchEngine {
 	
 	/**
 	 * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
-	 * an array list of all occurrences of the keyword in documents. The array list is maintained in 
+	 * a posting list of all occurrences of the keyword in documents. The posting list is maintained in 
 	 * DESCENDING order of frequencies.
 	 */
-	HashMap<String,ArrayList<Occurrence>> keywordsIndex;
+	HashMap<String,PostingList> keywordsIndex;
+	
+	/**
+	 * The table of all indexed documents. Posting lists refer to documents by their id in this table.
+	 */
+	DocumentTable documents;
+	
+	/**
+	 * Index file opened by loadIndex, or null. Keywords not yet in keywordsIndex are looked up
+	 * in it, and their posting lists are decoded on first use: into keywordsIndex when the index
+	 * is changed, into the decoded table when searched (searches must not change keywordsIndex).
+	 * A keyword whose postings were all removed keeps an empty list in keywordsIndex, which
+	 * hides its list in the file.
+	 */
+	IndexFile stored;
+	ConcurrentHashMap<String,PostingList> decoded = new ConcurrentHashMap<String,PostingList>();
+	
+	/**
+	 * True if stored was built off the heap by moveOffHeap. Posting lists decoded from it for
+	 * searches are then not kept in the decoded table, so the heap does not fill up again.
+	 * The stored lists are not copied to the heap to be changed either: keywordsIndex only
+	 * holds the postings added since, which searches see after the stored ones, and postings
+	 * of documents removed from the document table are left out as the stored lists are decoded.
+	 */
+	boolean offHeap;
+	
+	/**
+	 * Read lock for searches, write lock for changes to the index.
+	 */
+	final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	/**
+	 * Results of recent topKSearch (and top5search) calls. Changes to the index drop the
+	 * results of the queries with the changed keywords.
+	 */
+	QueryCache queryCache = new QueryCache(1024, 1 << 20);
+	
+	/**
+	 * Sorted dictionary of all keywords, for prefix and wildcard searches. Built by makeIndex,
+	 * dropped when a keyword is added to or removed from the index, and built again by the
+	 * next wildcard search.
+	 */
+	private volatile TermDictionary terms;
+	
+	/**
+	 * Most keywords a prefix or wildcard pattern is expanded to.
+	 */
+	int maxExpansions = 64;
+	
+	/**
+	 * Word positions of the keywords in each document, for phrase and proximity searches, or
+	 * null if positions are not kept. See setPositional.
+	 */
+	PositionIndex positions;
+	
+	/**
+	 * Receives measurements of indexing and searches. See setMetrics.
+	 */
+	volatile EngineMetrics metrics = EngineMetrics.NONE;
 	
 	/**
 	 * The hash set of all noise words.
 	 */
 	HashSet<String> noiseWords;
 	
+	/**
+	 * Unmodifiable copy of noiseWords, replaced (under the write lock) whenever they change.
+	 * Tokenizers and getKeyword read it without taking the lock.
+	 */
+	private volatile Set<String> noiseSnapshot = Collections.emptySet();
+	
+	/**
+	 * Bumped, under the write lock, after noiseSnapshot is replaced. A tokenizer built from an
+	 * older version is built again.
+	 */
+	private volatile int noiseVersion;
+	
+	/**
+	 * Number of documents, number of bytes and elapsed time (in nanoseconds) of the
+	 * most recent makeIndex call. Used by indexingReport.
+	 */
+	long indexedDocs, indexedBytes, indexNanos;
+	
+	/**
+	 * Number of documents handed to the worker pool at a time, per thread, by the
+	 * parallel makeIndex. Bounds the number of per-document keyword tables held in memory.
+	 */
+	static final int DOCS_PER_THREAD_BATCH = 64;
+	
+	/**
+	 * Documents of at least this many bytes are read through a memory mapped file channel
+	 * instead of a buffered reader.
+	 */
+	long mappedReadThreshold = 1 << 20;
+	
+	/**
+	 * Keyword tokenizer of each indexing thread.
+	 */
+	private final ThreadLocal<KeywordTokenizer> tokenizers = new ThreadLocal<KeywordTokenizer>();
+	
 	/**
 	 * Creates the keyWordsIndex and noiseWords hash tables.
 	 */
 	public LittleSearchEngine() {
-		keywordsIndex = new HashMap<String,ArrayList<Occurrence>>(1000,2.0f);
+		keywordsIndex = new HashMap<String,PostingList>(1000,2.0f);
+		documents = new DocumentTable();
 		noiseWords = new HashSet<String>(100,2.0f);
 	}
 	
 	/**
 	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
-	 * in the document. Uses the getKeyWord method to separate keywords from other words.
+	 * in the document. Keywords are separated from other words with the same rules as the
+	 * getKeyword method, by a KeywordTokenizer that reuses its buffers across documents.
+	 * Documents of mappedReadThreshold bytes or more are memory mapped and decoded in chunks,
+	 * smaller ones go through a buffered reader.
 	 * 
 	 * @param docFile Name of the document file to be scanned and loaded
 	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
 	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @throws UncheckedIOException If there is a problem reading the document file
 	 */
 	public HashMap<String,Occurrence> loadKeywordsFromDocument(String docFile) 
 	throws FileNotFoundException {
 		/** COMPLETE THIS METHOD **/
 		if (docFile == null)
 			throw new FileNotFoundException();
-		HashMap<String, Occurrence> map = new HashMap<String, Occurrence>();
-		Scanner s = new Scanner(new File(docFile));
-		while (s.hasNext())
-		{
-			String word = getKeyword(s.next());
-			if (word != null)
-			{
-				if (map.containsKey(word))
-					map.get(word).frequency++;
-				else
-					map.put(word, new Occurrence(docFile, 1));
+		FileInputStream file = new FileInputStream(docFile);
+		try {
+			long start = System.nanoTime();
+			FileChannel ch = file.getChannel();
+			KeywordTokenizer tokenizer = tokenizer();
+			HashMap<String,Occurrence> kws = ch.size() >= mappedReadThreshold
+					? tokenizer.tokenize(ch, Charset.defaultCharset(), docFile)
+					: tokenizer.tokenize(new InputStreamReader(file), docFile);
+			metrics.tokenized(tokenizer.lastWordCount, ch.size(), System.nanoTime() - start);
+			return kws;
+		} catch (IOException e) {
+			throw new UncheckedIOException(docFile, e);
+		} finally {
+			try {
+				file.close();
+			} catch (IOException e) {
+				// nothing was written, so nothing is lost
 			}
 		}
-		return map;
+	}
+	
+	/**
+	 * Scans a document from a stream, and loads all keywords found into a hash table of keyword
+	 * occurrences in the document, as loadKeywordsFromDocument does for a file. The stream is
+	 * read in small chunks through a buffer the tokenizer reuses, so documents of any size are
+	 * loaded in the same memory. The stream is read to its end, and not closed.
+	 * 
+	 * @param in Document contents, in the default character set
+	 * @param docName Name of the document, used for the returned occurrences
+	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
+	 * @throws IOException If there is a problem reading
+	 */
+	public HashMap<String,Occurrence> loadKeywordsFromStream(InputStream in, String docName) 
+	throws IOException {
+		return loadKeywordsFromChannel(Channels.newChannel(in), docName);
+	}
+	
+	/**
+	 * Same as loadKeywordsFromStream, for a channel. The channel is not closed.
+	 * 
+	 * @param ch Document contents, in the default character set
+	 * @param docName Name of the document, used for the returned occurrences
+	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
+	 * @throws IOException If there is a problem reading
+	 */
+	public HashMap<String,Occurrence> loadKeywordsFromChannel(ReadableByteChannel ch, String docName) 
+	throws IOException {
+		long start = System.nanoTime();
+		KeywordTokenizer tokenizer = tokenizer();
+		HashMap<String,Occurrence> kws = tokenizer.tokenize(ch, Charset.defaultCharset(), docName);
+		metrics.tokenized(tokenizer.lastWordCount, tokenizer.lastByteCount, System.nanoTime() - start);
+		return kws;
+	}
+	
+	/**
+	 * Returns the calling thread's tokenizer, rebuilding it if the noise words changed since
+	 * it was made.
+	 */
+	KeywordTokenizer tokenizer() 
+	{
+		// the version is read before the snapshot, so a tokenizer is never tagged with a
+		// newer version than the words it was built from
+		int version = noiseVersion;
+		KeywordTokenizer t = tokenizers.get();
+		if (t == null || t.noiseVersion != version || t.recordPositions != (positions != null))
+		{
+			t = new KeywordTokenizer(noiseSnapshot, positions != null);
+			t.noiseVersion = version;
+			tokenizers.set(t);
+		}
+		return t;
+	}
+	
+	/**
+	 * Publishes a new snapshot of the noise words and bumps their version. The caller must
+	 * hold the write lock.
+	 */
+	private void noiseWordsChanged() 
+	{
+		noiseSnapshot = Collections.unmodifiableSet(new HashSet<String>(noiseWords));
+		noiseVersion++;
 	}
 	
 	/**
 	 * Merges the keywords for a single document into the master keywordsIndex
 	 * hash table. For each keyword, its Occurrence in the current document
 	 * must be inserted in the correct place (according to descending order of
-	 * frequency) in the same keyword's Occurrence list in the master hash table. 
-	 * This is done by calling the insertLastOccurrence method.
+	 * frequency) in the same keyword's posting list in the master hash table. 
+	 * The document is interned in the document table, and the posting list
+	 * finds the spot by binary search, like insertLastOccurrence.
 	 * 
 	 * @param kws Keywords hash table for a document
 	 */
 	public void mergeKeywords(HashMap<String,Occurrence> kws) 
 	{
-		for (String key:kws.keySet())
+		lock.writeLock().lock();
+		try {
+			long start = System.nanoTime();
+			String[] keys = new String[kws.size()];
+			int[] freqs = new int[kws.size()];
+			int doc = -1;
+			int n = 0;
+			for (String key:kws.keySet())
+			{
+				Occurrence occ = kws.get(key);
+				PostingList postings = writablePostings(key);
+				doc = documents.intern(occ.document);
+				postings.add(doc, occ.frequency);
+				if (positions != null && occ.positions != null)
+					positions.writable(postings.keyword).add(doc, occ.positions);
+				keys[n] = postings.keyword;
+				freqs[n++] = occ.frequency;
+			}
+			queryCache.invalidate(keys);
+			if (doc >= 0)
+			{
+				recordDocumentKeywords(doc);
+				documents.addKeywords(doc, keys, freqs);
+			}
+			metrics.merged(1, n, System.nanoTime() - start);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Adds a document that is not in the index yet. Only the posting lists of the
+	 * document's keywords are touched.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @throws UncheckedIOException If there is a problem reading the document file
+	 * @throws IllegalArgumentException If the document is already indexed
+	 */
+	public void addDocument(String docFile) 
+	throws FileNotFoundException {
+		HashMap<String,Occurrence> kws = loadKeywordsFromDocument(docFile);
+		lock.writeLock().lock();
+		try {
+			if (documents.id(docFile) >= 0)
+				throw new IllegalArgumentException(docFile + " is already indexed");
+			documents.intern(docFile);
+			mergeKeywords(kws);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Adds a document that is not in the index yet, reading it from a stream. See
+	 * loadKeywordsFromStream.
+	 * 
+	 * @param in Document contents, in the default character set; read to the end, and not closed
+	 * @param docName Name of the document
+	 * @throws IOException If there is a problem reading; the index is then unchanged
+	 * @throws IllegalArgumentException If the document is already indexed
+	 */
+	public void addDocument(InputStream in, String docName) 
+	throws IOException {
+		HashMap<String,Occurrence> kws = loadKeywordsFromStream(in, docName);
+		lock.writeLock().lock();
+		try {
+			if (documents.id(docName) >= 0)
+				throw new IllegalArgumentException(docName + " is already indexed");
+			documents.intern(docName);
+			mergeKeywords(kws);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Adds every file of a zip, tar or gzip compressed tar archive (see ArchiveReader) as a
+	 * document, named archiveName + "!/" + the path of the file in the archive. Files are read
+	 * straight out of the archive stream one at a time, in archive order, and never written out
+	 * or held in memory whole; each is merged into the index as soon as it is tokenized, so
+	 * searches see the archive's documents as they are added.
+	 * 
+	 * @param in Archive contents; read to the end of the archive, and not closed
+	 * @param archiveName Name of the archive, the start of the document names
+	 * @return Number of documents added
+	 * @throws IOException If there is a problem reading, or the archive is corrupt; the
+	 *         documents before the problem stay in the index
+	 * @throws IllegalArgumentException If a document is already indexed
+	 */
+	public int addArchive(InputStream in, String archiveName) 
+	throws IOException {
+		ArchiveReader archive = new ArchiveReader(in);
+		int added = 0;
+		String entry;
+		while ((entry = archive.nextEntry()) != null)
 		{
-			ArrayList<Occurrence> occurence = new ArrayList<Occurrence>();
-			if (keywordsIndex.containsKey(key))
-				occurence = keywordsIndex.get(key);
-			occurence.add(kws.get(key));
-			insertLastOccurrence(occurence);
-			keywordsIndex.put(key,occurence);
+			addDocument(archive, archiveName + "!/" + entry);
+			added++;
+		}
+		return added;
+	}
+	
+	/**
+	 * Same as addArchive(InputStream, String), for an archive file, named by its file name.
+	 * 
+	 * @param archiveFile Name of the archive file
+	 * @return Number of documents added
+	 * @throws IOException If the file is not found, there is a problem reading, or the archive is corrupt
+	 * @throws IllegalArgumentException If a document is already indexed
+	 */
+	public int addArchive(String archiveFile) 
+	throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(archiveFile), 1 << 16);
+		try {
+			return addArchive(in, archiveFile);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Removes a document from the index. Its postings are found through the keywords recorded
+	 * for it in the document table, or in the loaded index file, so the cost depends on the
+	 * size of the document, not of the index. Keywords left without any postings are removed
+	 * from the index. In an index moved off the heap, the stored postings of the document are
+	 * skipped from then on.
+	 * 
+	 * @param docFile Name of the document file
+	 * @return True if the document was indexed, false if not
+	 */
+	public boolean removeDocument(String docFile) 
+	{
+		lock.writeLock().lock();
+		try {
+			int doc = documents.id(docFile);
+			if (doc < 0)
+				return false;
+			recordDocumentKeywords(doc);
+			String[] kws = documents.keywords(doc);
+			int[] freqs = documents.freqs(doc);
+			for (int i = 0; kws != null && i < kws.length; i++)
+			{
+				PostingList postings = offHeap ? keywordsIndex.get(kws[i]) : writablePostings(kws[i]);
+				if (postings != null && postings.remove(doc, freqs[i]) && postings.size() == 0)
+				{
+					// an empty list hides the keyword's list in the loaded index file
+					if (offHeap || stored == null || !stored.contains(kws[i]))
+						keywordsIndex.remove(kws[i]);
+					terms = null;
+				}
+				if (positions != null)
+					positions.remove(kws[i], doc);
+			}
+			if (kws != null)
+				queryCache.invalidate(kws);
+			documents.remove(doc);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Replaces the postings of a document with those of its current contents, or adds it if
+	 * it is not indexed yet. The document gets a new id, so it is ordered after documents
+	 * with the same frequencies, as if it had just been added.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk; the index is then unchanged
+	 * @throws UncheckedIOException If there is a problem reading the document file; the index is then unchanged
+	 */
+	public void updateDocument(String docFile) 
+	throws FileNotFoundException {
+		HashMap<String,Occurrence> kws = loadKeywordsFromDocument(docFile);
+		lock.writeLock().lock();
+		try {
+			removeDocument(docFile);
+			documents.intern(docFile);
+			mergeKeywords(kws);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Records the keywords of a document of the loaded index file in the document table, if
+	 * they are not recorded yet, reading them from the document's entry in the file. The
+	 * caller must hold the write lock.
+	 * 
+	 * @param doc Document id
+	 */
+	private void recordDocumentKeywords(int doc) 
+	{
+		if (stored == null || documents.name(doc) == null || documents.keywords(doc) != null)
+			return;
+		String[] kws = stored.documentKeywords(doc);
+		if (kws != null)
+			documents.setKeywords(doc, kws, stored.documentFreqs(doc));
+	}
+	
+	/**
+	 * Returns all occurrences of a keyword, in descending order of frequencies.
+	 * 
+	 * @param keyword Keyword
+	 * @return List of occurrences, or null if the keyword is not in the index
+	 */
+	public ArrayList<Occurrence> getOccurrences(String keyword) 
+	{
+		lock.readLock().lock();
+		try {
+			PostingList postings = postings(keyword);
+			return postings == null ? null : postings.toOccurrences(documents);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns the posting list of a keyword, decoding it from the loaded index file if
+	 * it has not been used yet. The caller must hold the read or the write lock.
+	 * 
+	 * @param keyword Keyword
+	 * @return Posting list, or null if the keyword is not in the index
+	 */
+	PostingList postings(String keyword) 
+	{
+		if (offHeap)
+			return offHeapPostings(keyword);
+		PostingList postings = keywordsIndex.get(keyword);
+		if (postings != null && postings.size() == 0)
+			return null;
+		if (postings == null && stored != null)
+		{
+			postings = decoded.get(keyword);
+			if (postings == null)
+			{
+				postings = stored.postings(keyword);
+				if (postings != null)
+				{
+					PostingList other = decoded.putIfAbsent(keyword, postings);
+					if (other != null)
+						postings = other;
+				}
+			}
+		}
+		return postings;
+	}
+	
+	/**
+	 * Returns the posting list of a keyword in an index moved off the heap: the stored
+	 * postings of documents still in the document table, then those added since.
+	 * 
+	 * @param keyword Keyword
+	 * @return Posting list, or null if the keyword has no postings
+	 */
+	private PostingList offHeapPostings(String keyword) 
+	{
+		PostingList added = keywordsIndex.get(keyword);
+		PostingList postings = stored.postings(keyword, documents);
+		if (postings == null || postings.size() == 0)
+			postings = added;
+		else if (added != null && added.size() > 0)
+			postings = PostingList.merge(postings, added);
+		return postings == null || postings.size() == 0 ? null : postings;
+	}
+	
+	/**
+	 * Returns the posting list of a keyword in keywordsIndex, decoding it from the loaded index
+	 * file or creating an empty one if needed. The caller must hold the write lock. In an index
+	 * moved off the heap, the list only holds the postings added since.
+	 * 
+	 * @param keyword Keyword
+	 * @return Posting list
+	 */
+	PostingList writablePostings(String keyword) 
+	{
+		PostingList postings = keywordsIndex.get(keyword);
+		if (postings == null)
+		{
+			postings = offHeap ? null : postings(keyword);
+			if (postings == null)
+			{
+				postings = new PostingList(keyword);
+				if (stored == null || !stored.contains(keyword))
+					terms = null;
+			}
+			keywordsIndex.put(keyword, postings);
+		}
+		else if (postings.size() == 0)
+			terms = null;
+		return postings;
+	}
+	
+	/**
+	 * Decodes every posting list of the loaded index file into keywordsIndex, records the
+	 * keywords of its documents in the document table, and lets go of the file. The caller
+	 * must hold the write lock.
+	 */
+	void loadAllPostings() 
+	{
+		if (stored == null)
+			return;
+		if (offHeap)
+		{
+			HashMap<String,PostingList> all = new HashMap<String,PostingList>(1000,2.0f);
+			for (Map.Entry<String,PostingList> e : allPostings().entrySet())
+			{
+				if (e.getValue() != null)
+					all.put(e.getKey(), e.getValue());
+			}
+			keywordsIndex = all;
+		}
+		else
+		{
+			for (String keyword : stored.keywords())
+				writablePostings(keyword);
+			for (Iterator<PostingList> it = keywordsIndex.values().iterator(); it.hasNext(); )
+			{
+				if (it.next().size() == 0)
+					it.remove();
+			}
+		}
+		for (int doc = 0; doc < documents.size(); doc++)
+			recordDocumentKeywords(doc);
+		stored = null;
+		offHeap = false;
+		decoded.clear();
+	}
+	
+	/**
+	 * Returns every keyword and its posting list, to be written out. In an index moved off the
+	 * heap, this is a view that decodes each list as it is asked for, and maps keywords without
+	 * postings left to null, so the index is not brought back onto the heap; otherwise any
+	 * lists still in the loaded index file are decoded into keywordsIndex. The caller must hold
+	 * the write lock while the map is used.
+	 * 
+	 * @return Posting lists by keyword
+	 */
+	private Map<String,PostingList> allPostings() 
+	{
+		if (!offHeap)
+		{
+			loadAllPostings();
+			return keywordsIndex;
+		}
+		final HashSet<String> keywords = new HashSet<String>(stored.keywords());
+		keywords.addAll(keywordsIndex.keySet());
+		return new AbstractMap<String,PostingList>() {
+			public int size() 
+			{
+				return keywords.size();
+			}
+			
+			public PostingList get(Object keyword) 
+			{
+				return keywords.contains(keyword) ? offHeapPostings((String)keyword) : null;
+			}
+			
+			public Set<Map.Entry<String,PostingList>> entrySet() 
+			{
+				return new AbstractSet<Map.Entry<String,PostingList>>() {
+					public int size() 
+					{
+						return keywords.size();
+					}
+					
+					public Iterator<Map.Entry<String,PostingList>> iterator() 
+					{
+						final Iterator<String> it = keywords.iterator();
+						return new Iterator<Map.Entry<String,PostingList>>() {
+							public boolean hasNext() 
+							{
+								return it.hasNext();
+							}
+							
+							public Map.Entry<String,PostingList> next() 
+							{
+								String keyword = it.next();
+								return new AbstractMap.SimpleImmutableEntry<String,PostingList>(keyword, offHeapPostings(keyword));
+							}
+						};
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * Moves the keywords and posting lists of the index out of the Java heap, into a direct
+	 * buffer laid out like an index file (see IndexFile.offHeap), so that an index of very many
+	 * keywords neither takes up the heap nor adds to the work of the garbage collector. Searches
+	 * work as before, decoding the posting lists they need from the buffer each time, which
+	 * makes them slower. The per-document keyword lists are moved to the buffer as well, as
+	 * after loadIndex; word positions, if kept, stay on the heap. Postings of documents
+	 * indexed afterwards live on the heap, and documents removed afterwards are skipped in the
+	 * buffer, until the next call, which moves the index into a new buffer one posting list at
+	 * a time. An index of more than 1 GB takes several buffers.
+	 * 
+	 * @return Number of bytes of the off heap buffers
+	 * @throws IOException If there is a problem writing the buffers
+	 */
+	public long moveOffHeap() 
+	throws IOException {
+		lock.writeLock().lock();
+		try {
+			IndexFile file = IndexFile.offHeap(documents, noiseWords, allPostings(), null);
+			if (positions != null)
+				positions = positions.loadAll();
+			documents = documentTable(file);
+			keywordsIndex = new HashMap<String,PostingList>(1000,2.0f);
+			decoded.clear();
+			queryCache.clear();
+			terms = null;
+			stored = file;
+			offHeap = true;
+			return file.bytes();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Tells if the index was moved off the heap by moveOffHeap, and has not been loaded back.
+	 * 
+	 * @return True if the index is off the heap
+	 */
+	public boolean isOffHeap() 
+	{
+		return offHeap;
+	}
+	
+	/**
+	 * Returns a document table of the documents of an index file, without their keywords.
+	 */
+	private static DocumentTable documentTable(IndexFile file) 
+	{
+		DocumentTable table = new DocumentTable();
+		ArrayList<String> names = file.documentNames();
+		for (int doc = 0; doc < names.size(); doc++)
+		{
+			if (names.get(doc) == null)
+				table.addRemoved();
+			else
+				table.setLength(table.intern(names.get(doc)), file.documentLengths()[doc]);
+		}
+		return table;
+	}
+	
+	/**
+	 * Writes the index (document table, noise words, all posting lists and word positions, if
+	 * kept) to a binary index file, which loadIndex can open without reading any documents. See
+	 * IndexFile for the format.
+	 * 
+	 * @param indexFile Name of the index file, replaced if it exists
+	 * @throws IOException If there is a problem writing the file
+	 */
+	public void saveIndex(String indexFile) 
+	throws IOException {
+		lock.writeLock().lock();
+		try {
+			Map<String,PostingList> index = allPostings();
+			if (positions != null)
+				positions = positions.loadAll();
+			IndexFile.write(indexFile, documents, noiseWords, index, positions);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Replaces the index with one saved by saveIndex. The file is memory mapped and its checksum
+	 * checked; posting lists are decoded from it as keywords are used, so searches can be
+	 * answered right away. Word positions are kept if the index has them, and read from the
+	 * file the same way.
+	 * 
+	 * @param indexFile Name of the index file
+	 * @throws IOException If the file cannot be read, is of another version, or is corrupt
+	 */
+	public void loadIndex(String indexFile) 
+	throws IOException {
+		IndexFile file = IndexFile.map(indexFile, true);
+		DocumentTable table = documentTable(file);
+		lock.writeLock().lock();
+		try {
+			keywordsIndex.clear();
+			decoded.clear();
+			queryCache.clear();
+			terms = null;
+			positions = file.hasPositions() ? new PositionIndex(file) : null;
+			documents = table;
+			noiseWords.clear();
+			noiseWords.addAll(file.noiseWords());
+			noiseWordsChanged();
+			stored = file;
+			offHeap = false;
+		} finally {
+			lock.writeLock().unlock();
 		}
 	}
 	
@@ -100,21 +766,20 @@ public class LittleSearchEngine {
 	 */
 	public String getKeyword(String word) 
 	{
-		for (int i = word.length() - 1; i >= 0; i--)
-		{
-			if (word.charAt(i) == '.' || word.charAt(i) == ',' || word.charAt(i) == '?' || word.charAt(i) == ':' || word.charAt(i) == ';' || word.charAt(i) == '!')
-				word.substring(0, i);
-			else
-				continue;
-		}
-		if (noiseWords.contains(word) || word.equals(""))
+		int end = word.length();
+		while (end > 0 && KeywordTokenizer.isPunctuation(word.charAt(end-1)))
+			end--;
+		if (end == 0)
 			return null;
-		for (int i = 1; i < word.length(); i++)
+		for (int i = 0; i < end; i++)
 		{
 			if (!Character.isLetter(word.charAt(i)))
 				return null;
 		}
-		return word.toLowerCase();
+		word = word.substring(0, end).toLowerCase();
+		if (noiseSnapshot.contains(word))
+			return null;
+		return word;
 	}
 	
 	/**
@@ -148,9 +813,11 @@ public class LittleSearchEngine {
 			else
 				max = mid - 1;
 		}
-		occs.add(mid+1,occs.remove(occs.size()-1));
-		if (max < min) 
-			occs.add(min,occs.remove(occs.size() - 1));
+		occs.remove(occs.size()-1);
+		if (min <= max)
+			occs.add(mid+1, target);
+		else
+			occs.add(min, target);
 		return midpoints;
 	}
 	
@@ -163,24 +830,346 @@ public class LittleSearchEngine {
 	 * @param docsFile Name of file that has a list of all the document file names, one name per line
 	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
 	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 * @throws UncheckedIOException If there is a problem reading a document
 	 */
 	public void makeIndex(String docsFile, String noiseWordsFile) 
+	throws FileNotFoundException {
+		makeIndex(docsFile, noiseWordsFile, 1);
+	}
+	
+	/**
+	 * Same as makeIndex(docsFile, noiseWordsFile), but tokenizes documents concurrently on a
+	 * pool of the given number of worker threads. Documents are handed out in batches, and each
+	 * batch is merged by the same number of threads, each of which owns a disjoint slice of the
+	 * keywords (by hash) and merges the batch's documents in docs file order. No lock is shared
+	 * between the merge threads, and every Occurrence list ends up exactly as the serial build
+	 * leaves it.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param threads Number of worker threads; 1 or less indexes on the calling thread
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 * @throws UncheckedIOException If there is a problem reading a document
+	 */
+	public void makeIndex(String docsFile, String noiseWordsFile, int threads) 
 	throws FileNotFoundException {
 		// load noise words to hash table
-		Scanner sc = new Scanner(new File(noiseWordsFile));
-		while (sc.hasNext()) {
-			String word = sc.next();
-			noiseWords.add(word);
-		}
+		loadNoiseWords(noiseWordsFile);
 		
 		// index all keywords
-		sc = new Scanner(new File(docsFile));
+		Scanner sc = new Scanner(new File(docsFile));
+		ArrayList<String> docs = new ArrayList<String>();
 		while (sc.hasNext()) {
-			String docFile = sc.next();
-			HashMap<String,Occurrence> kws = loadKeywordsFromDocument(docFile);
-			mergeKeywords(kws);
+			docs.add(sc.next());
 		}
 		sc.close();
+		indexDocuments(docs, threads);
+		// the buffers grow to fit the biggest document; don't keep them after a full build
+		tokenizers.remove();
+		lock.readLock().lock();
+		try {
+			termDictionary();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Adds the noise words in the given file to the noise words hash set.
+	 * 
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If the file is not found on disk
+	 */
+	void loadNoiseWords(String noiseWordsFile) 
+	throws FileNotFoundException {
+		Scanner sc = new Scanner(new File(noiseWordsFile));
+		lock.writeLock().lock();
+		try {
+			while (sc.hasNext()) {
+				String word = sc.next();
+				noiseWords.add(word);
+			}
+			noiseWordsChanged();
+		} finally {
+			lock.writeLock().unlock();
+			sc.close();
+		}
+	}
+	
+	/**
+	 * Indexes the given documents, in order, on the calling thread or on a pool of worker threads.
+	 * Noise words must be loaded first. See makeIndex(String, String, int).
+	 * 
+	 * @param docs Document file names
+	 * @param threads Number of worker threads; 1 or less indexes on the calling thread
+	 * @throws FileNotFoundException If any of the documents is not found on disk
+	 * @throws UncheckedIOException If there is a problem reading a document
+	 */
+	void indexDocuments(ArrayList<String> docs, int threads) 
+	throws FileNotFoundException {
+		long start = System.nanoTime();
+		indexedDocs = 0;
+		indexedBytes = 0;
+		if (threads <= 1) {
+			for (String docFile : docs) {
+				HashMap<String,Occurrence> kws = loadKeywordsFromDocument(docFile);
+				lock.writeLock().lock();
+				try {
+					documents.intern(docFile);
+					mergeKeywords(kws);
+				} finally {
+					lock.writeLock().unlock();
+				}
+				indexedDocs++;
+				indexedBytes += new File(docFile).length();
+			}
+		} else {
+			makeIndexParallel(docs, threads);
+		}
+		// no more postings are coming: merge each list into one exactly sized run
+		lock.writeLock().lock();
+		try {
+			for (PostingList list : keywordsIndex.values()) {
+				list.trim();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		indexNanos = System.nanoTime() - start;
+	}
+	
+	/**
+	 * Indexes the given documents with a pool of worker threads. See makeIndex(String, String, int).
+	 * 
+	 * @param docs Document file names, in docs file order
+	 * @param threads Number of worker threads
+	 * @throws FileNotFoundException If any of the documents is not found on disk
+	 * @throws UncheckedIOException If there is a problem reading a document
+	 */
+	private void makeIndexParallel(ArrayList<String> docs, int threads) 
+	throws FileNotFoundException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			int batchSize = threads * DOCS_PER_THREAD_BATCH;
+			for (int from = 0; from < docs.size(); from += batchSize)
+			{
+				List<String> batch = docs.subList(from, Math.min(from + batchSize, docs.size()));
+				
+				// tokenize the batch, while searches go on
+				ArrayList<Future<HashMap<String,Occurrence>>> loads = new ArrayList<Future<HashMap<String,Occurrence>>>();
+				for (final String docFile : batch)
+				{
+					loads.add(pool.submit(new Callable<HashMap<String,Occurrence>>() {
+						public HashMap<String,Occurrence> call() throws FileNotFoundException {
+							return loadKeywordsFromDocument(docFile);
+						}
+					}));
+				}
+				ArrayList<HashMap<String,Occurrence>> kwsList = new ArrayList<HashMap<String,Occurrence>>();
+				for (Future<HashMap<String,Occurrence>> load : loads)
+					kwsList.add(await(load));
+				
+				lock.writeLock().lock();
+				try {
+					long start = System.nanoTime();
+					int postings = 0;
+					// look up or create every posting list the batch adds to
+					final int[] docIds = new int[batch.size()];
+					final PostingList[][] docLists = new PostingList[batch.size()][];
+					final String[][] docKeywords = new String[batch.size()][];
+					final int[][] docFreqs = new int[batch.size()][];
+					final PositionIndex.Positions[][] docPositions = new PositionIndex.Positions[batch.size()][];
+					final byte[][][] docPositionData = new byte[batch.size()][][];
+					for (int i = 0; i < docIds.length; i++)
+					{
+						docIds[i] = documents.intern(batch.get(i));
+						int n = kwsList.get(i).size();
+						docLists[i] = new PostingList[n];
+						docKeywords[i] = new String[n];
+						docFreqs[i] = new int[n];
+						docPositions[i] = new PositionIndex.Positions[n];
+						docPositionData[i] = new byte[n][];
+						postings += n;
+						int k = 0;
+						for (Map.Entry<String,Occurrence> e : kwsList.get(i).entrySet())
+						{
+							docLists[i][k] = writablePostings(e.getKey());
+							docKeywords[i][k] = docLists[i][k].keyword;
+							docFreqs[i][k] = e.getValue().frequency;
+							if (positions != null && e.getValue().positions != null)
+							{
+								docPositions[i][k] = positions.writable(docKeywords[i][k]);
+								docPositionData[i][k] = e.getValue().positions;
+							}
+							k++;
+						}
+					}
+					
+					// merge the batch, one slice of keywords per thread, documents in order
+					ArrayList<Future<Void>> merges = new ArrayList<Future<Void>>();
+					for (int t = 0; t < threads; t++)
+					{
+						final int slice = t;
+						final int sliceCount = threads;
+						merges.add(pool.submit(new Callable<Void>() {
+							public Void call() {
+								for (int i = 0; i < docIds.length; i++)
+								{
+									for (int k = 0; k < docLists[i].length; k++)
+									{
+										if (sliceOf(docKeywords[i][k], sliceCount) == slice)
+										{
+											docLists[i][k].add(docIds[i], docFreqs[i][k]);
+											if (docPositions[i][k] != null)
+												docPositions[i][k].add(docIds[i], docPositionData[i][k]);
+										}
+									}
+								}
+								return null;
+							}
+						}));
+					}
+					for (Future<Void> merge : merges)
+						await(merge);
+					for (int i = 0; i < docIds.length; i++)
+					{
+						queryCache.invalidate(docKeywords[i]);
+						recordDocumentKeywords(docIds[i]);
+						documents.addKeywords(docIds[i], docKeywords[i], docFreqs[i]);
+					}
+					metrics.merged(batch.size(), postings, System.nanoTime() - start);
+				} finally {
+					lock.writeLock().unlock();
+				}
+				
+				for (String docFile : batch)
+					indexedBytes += new File(docFile).length();
+				indexedDocs += batch.size();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Returns the merge slice a keyword belongs to.
+	 */
+	private static int sliceOf(String keyword, int slices) 
+	{
+		return (keyword.hashCode() & 0x7fffffff) % slices;
+	}
+	
+	/**
+	 * Waits for a worker task, passing on a FileNotFoundException or UncheckedIOException
+	 * thrown by it.
+	 */
+	private static <T> T await(Future<T> task) 
+	throws FileNotFoundException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while indexing", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof FileNotFoundException)
+				throw (FileNotFoundException)e.getCause();
+			if (e.getCause() instanceof UncheckedIOException)
+				throw (UncheckedIOException)e.getCause();
+			throw new IllegalStateException("indexing failed", e.getCause());
+		}
+	}
+	
+	/**
+	 * Returns the throughput of the most recent makeIndex call, in documents and megabytes
+	 * per second.
+	 * 
+	 * @return Report of the form "n docs, m MB in s sec (x docs/sec, y MB/sec)"
+	 */
+	public String indexingReport() 
+	{
+		double secs = indexNanos / 1e9;
+		double mb = indexedBytes / (1024.0 * 1024.0);
+		return String.format("%d docs, %.2f MB in %.3f sec (%.1f docs/sec, %.2f MB/sec)",
+				indexedDocs, mb, secs, indexedDocs / secs, mb / secs);
+	}
+	
+	/**
+	 * Sets where measurements of indexing and searches go: the number of words and time of
+	 * tokenizing each document, the time the write lock is held to merge documents, and the
+	 * latency of each search. Measurements are dropped until this is called.
+	 * 
+	 * @param metrics Metrics, such as a StandardMetrics; null to drop measurements
+	 */
+	public void setMetrics(EngineMetrics metrics) 
+	{
+		this.metrics = metrics == null ? EngineMetrics.NONE : metrics;
+	}
+	
+	/**
+	 * Returns where measurements go. See setMetrics.
+	 * 
+	 * @return Metrics, EngineMetrics.NONE if not set
+	 */
+	public EngineMetrics metrics() 
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Returns the distribution of posting list lengths: element i is the number of keywords
+	 * with at least 2^i and less than 2^(i+1) documents. Keywords that are only in an index
+	 * file (see loadIndex and moveOffHeap) are not counted, and after moveOffHeap only the
+	 * postings added since are.
+	 * 
+	 * @return Number of posting lists by length, up to the longest one
+	 */
+	public long[] postingListLengths() 
+	{
+		lock.readLock().lock();
+		try {
+			long[] counts = new long[32];
+			int top = 0;
+			for (PostingList list : keywordsIndex.values())
+			{
+				int size = list.size();
+				if (size > 0)
+				{
+					int i = 31 - Integer.numberOfLeadingZeros(size);
+					counts[i]++;
+					top = Math.max(top, i + 1);
+				}
+			}
+			return Arrays.copyOf(counts, top);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns the query cache, for its hit, miss and eviction counts.
+	 * 
+	 * @return Query cache
+	 */
+	public QueryCache queryCache() 
+	{
+		return queryCache;
+	}
+	
+	/**
+	 * Replaces the query cache with an empty one of the given bounds. A maxEntries of 0
+	 * turns caching off.
+	 * 
+	 * @param maxEntries Most results kept
+	 * @param maxBytes Most estimated bytes of results kept
+	 */
+	public void setQueryCacheSize(int maxEntries, long maxBytes) 
+	{
+		lock.writeLock().lock();
+		try {
+			queryCache = new QueryCache(maxEntries, maxBytes);
+		} finally {
+			lock.writeLock().unlock();
+		}
 	}
 	
 	/**
@@ -205,81 +1194,472 @@ public class LittleSearchEngine {
 	 */
 	public ArrayList<String> top5search(String kw1, String kw2) 
 	{
-		ArrayList<String> temp = new ArrayList<String>();
-		ArrayList<String> top5 = new ArrayList<String>();
-		ArrayList<Occurrence> list1 = keywordsIndex.get(kw1);
-		ArrayList<Occurrence> list2 = keywordsIndex.get(kw2);
-		boolean firstSearch = false;
-		boolean secondSearch = false;
-		int kw1length = 0;
-		int kw2length = 0;
-		int count = 0;
-		int a = 0;
-		int b = 0;
+		return topKSearch(5, kw1, kw2);
+	}
+	
+	/**
+	 * Search result for "kw1 or kw2 or ...", limited to k documents. The posting lists of the
+	 * keywords are merged through a heap in descending order of frequencies, and the merge stops
+	 * as soon as k distinct documents are found. A document appears once, at its highest frequency.
+	 * Ties in frequency values are broken in favor of the keyword listed earlier.
+	 * Results are kept in the query cache (see queryCache), so repeated queries are answered
+	 * with a hash lookup until a document with one of their keywords is added or removed.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords; repeated keywords count once
+	 * @return List of documents in which any of the keywords occurs, arranged in descending order
+	 *         of frequencies. Empty if there are no matches.
+	 */
+	public ArrayList<String> topKSearch(int k, String... keywords) 
+	{
+		long start = System.nanoTime();
+		lock.readLock().lock();
+		try {
+			String[] distinct = QueryCache.distinct(keywords);
+			String key = QueryCache.key(k, distinct);
+			ArrayList<String> result = queryCache.get(key);
+			if (result != null)
+				return result;
+			result = new ArrayList<String>();
+			for (Hit hit : topKHits(k, distinct))
+				result.add(documents.name(hit.doc));
+			queryCache.put(key, distinct, result);
+			return result;
+		} finally {
+			lock.readLock().unlock();
+			metrics.searched(EngineMetrics.Search.TOP_K, System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * A document in a search result, with the frequency and the index of the keyword it
+	 * was found with.
+	 */
+	static class Hit 
+	{
+		int doc, freq, keyword;
 		
-		if (list1 == null && list2 == null)
-			return temp;
-		if (list1 == null)
+		Hit(int doc, int freq, int keyword) 
 		{
-			secondSearch = true;
-			kw2length = (keywordsIndex.get(kw2)).size();
+			this.doc = doc;
+			this.freq = freq;
+			this.keyword = keyword;
 		}
-		if (list2 == null)
-		{
-			firstSearch = true;
-			kw1length = (keywordsIndex.get(kw1)).size();
+	}
+	
+	/**
+	 * Same as topKSearch, returning the hits instead of document names.
+	 */
+	ArrayList<Hit> topKHits(int k, String... keywords) 
+	{
+		lock.readLock().lock();
+		try {
+			ArrayList<Hit> result = new ArrayList<Hit>();
+			PostingList[] lists = new PostingList[keywords.length];
+			HashSet<String> distinct = new HashSet<String>();
+			for (int i = 0; i < keywords.length; i++)
+			{
+				if (distinct.add(keywords[i]))
+					lists[i] = postings(keywords[i]);
+			}
+			HashSet<Integer> seen = new HashSet<Integer>();
+			PostingMerger merge = new PostingMerger(lists);
+			while (result.size() < k && merge.hasNext())
+			{
+				if (seen.add(merge.doc()))
+					result.add(new Hit(merge.doc(), merge.freq(), merge.list()));
+				merge.next();
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Search result for a boolean query, limited to k documents. A query is a sequence of keywords
+	 * joined by the operators AND, OR and NOT (upper case), where AND and NOT bind tighter than OR
+	 * and operators of the same kind are applied left to right; keywords with no operator between
+	 * them are joined by AND. So "alice AND rabbit NOT queen OR hatter" means documents with alice
+	 * and rabbit but not queen, and documents with hatter. The result is arranged in descending
+	 * order of the sum of the frequencies of the matched keywords (keywords after NOT do not count),
+	 * ties in the order documents were indexed.
+	 * 
+	 * @param query Boolean query
+	 * @param k Maximum number of documents in the result
+	 * @return List of matching documents. Empty if there are no matches.
+	 * @throws IllegalArgumentException If the query is empty, or an operator is missing a keyword
+	 */
+	public ArrayList<String> booleanSearch(String query, int k) 
+	{
+		StringTokenizer st = new StringTokenizer(query);
+		ArrayList<String> tokens = new ArrayList<String>();
+		while (st.hasMoreTokens())
+			tokens.add(st.nextToken());
+		long start = System.nanoTime();
+		lock.readLock().lock();
+		try {
+			int[] pos = {0};
+			DocSet matches = parseOr(tokens, pos);
+			if (pos[0] < tokens.size())
+				throw new IllegalArgumentException("unexpected " + tokens.get(pos[0]) + " in " + query);
+			ArrayList<String> result = new ArrayList<String>();
+			for (int doc : matches.top(k))
+				result.add(documents.name(doc));
+			return result;
+		} finally {
+			lock.readLock().unlock();
+			metrics.searched(EngineMetrics.Search.BOOLEAN, System.nanoTime() - start);
 		}
-		if (keywordsIndex.containsKey(kw2) && keywordsIndex.containsKey(kw1))
+	}
+	
+	/**
+	 * Parses and evaluates "term OR term ...", starting at tokens[pos[0]].
+	 */
+	private DocSet parseOr(ArrayList<String> tokens, int[] pos) 
+	{
+		DocSet set = parseAnd(tokens, pos);
+		while (pos[0] < tokens.size() && tokens.get(pos[0]).equals("OR"))
 		{
-			kw1length = (keywordsIndex.get(kw1)).size();
-			kw2length = (keywordsIndex.get(kw2)).size();
+			pos[0]++;
+			set = DocSet.or(set, parseAnd(tokens, pos));
 		}
-		while (firstSearch == false && secondSearch == false && count < 10)
+		return set;
+	}
+	
+	/**
+	 * Parses and evaluates "keyword AND keyword NOT keyword ...", starting at tokens[pos[0]].
+	 */
+	private DocSet parseAnd(ArrayList<String> tokens, int[] pos) 
+	{
+		DocSet set = parseKeyword(tokens, pos);
+		while (pos[0] < tokens.size() && !tokens.get(pos[0]).equals("OR"))
 		{
-			int kw1freq = keywordsIndex.get(kw1).get(a).frequency;
-			int kw2freq = keywordsIndex.get(kw2).get(b).frequency;
-			if (kw1freq >= kw2freq)
+			// "AND NOT" is the same as "NOT"
+			if (tokens.get(pos[0]).equals("AND"))
+				pos[0]++;
+			if (pos[0] < tokens.size() && tokens.get(pos[0]).equals("NOT"))
 			{
-				temp.add(keywordsIndex.get(kw1).get(a).document);
-				count++;
-				a++;
+				pos[0]++;
+				set = DocSet.not(set, parseKeyword(tokens, pos));
 			}
-			if (kw2freq > kw1freq)
+			else
+				set = DocSet.and(set, parseKeyword(tokens, pos));
+		}
+		return set;
+	}
+	
+	/**
+	 * Returns the documents of the keyword at tokens[pos[0]].
+	 */
+	private DocSet parseKeyword(ArrayList<String> tokens, int[] pos) 
+	{
+		if (pos[0] == tokens.size())
+			throw new IllegalArgumentException("missing keyword at end of query");
+		String keyword = tokens.get(pos[0]++);
+		if (keyword.equals("AND") || keyword.equals("OR") || keyword.equals("NOT"))
+			throw new IllegalArgumentException("missing keyword before " + keyword);
+		PostingList postings = postings(keyword.toLowerCase());
+		return postings == null ? new DocSet(0) : postings.byDoc();
+	}
+	
+	/**
+	 * Search result for "kw1 or kw2 or ...", limited to k documents, ranked with the given
+	 * ranking. A document's score is the sum of the scores of the keywords it contains. With
+	 * Ranking.FREQUENCY this is the same as topKSearch. The scored rankings use the document
+	 * lengths and document counts kept by the document table, and skip documents that cannot
+	 * make the top k (see RankedSearch).
+	 * 
+	 * @param ranking Ranking of the results
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords; repeated keywords count once
+	 * @return List of matching documents, best first, ties in the order documents were indexed.
+	 *         Empty if there are no matches.
+	 */
+	public ArrayList<String> rankedSearch(Ranking ranking, int k, String... keywords) 
+	{
+		if (ranking == Ranking.FREQUENCY)
+			return topKSearch(k, keywords);
+		long start = System.nanoTime();
+		lock.readLock().lock();
+		try {
+			ArrayList<PostingList> lists = new ArrayList<PostingList>();
+			for (String keyword : new LinkedHashSet<String>(Arrays.asList(keywords)))
 			{
-				temp.add(keywordsIndex.get(kw2).get(b).document);
-				count++;
-				b++;
+				PostingList postings = postings(keyword);
+				if (postings != null && postings.size() > 0)
+					lists.add(postings);
 			}
-			if (a == kw1length)
-				secondSearch = true;
-			if (b == kw2length)
-				firstSearch = true;
+			ArrayList<String> result = new ArrayList<String>();
+			if (k <= 0)
+				return result;
+			for (int doc : RankedSearch.top(ranking, lists.toArray(new PostingList[lists.size()]), documents, k))
+				result.add(documents.name(doc));
+			return result;
+		} finally {
+			lock.readLock().unlock();
+			metrics.searched(EngineMetrics.Search.RANKED, System.nanoTime() - start);
 		}
-		if (count < 10 && firstSearch && a < kw1length)
-		{
-			while (count < 10 && a < kw1length)
+	}
+	
+	/**
+	 * Returns the keywords that match a prefix or wildcard pattern, in sorted order. In the
+	 * pattern '*' matches any number of characters and '?' matches one character, so "rabb*"
+	 * matches every keyword that starts with "rabb". At most maxExpansions keywords are
+	 * returned, the first in sorted order.
+	 * 
+	 * @param pattern Pattern, in any case
+	 * @return Matching keywords. Empty if there are none.
+	 */
+	public ArrayList<String> expandKeyword(String pattern) 
+	{
+		lock.readLock().lock();
+		try {
+			return termDictionary().expand(pattern.toLowerCase(), maxExpansions);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Search result for "pattern1 or pattern2 or ...", limited to k documents, where each pattern
+	 * is a keyword, or a prefix or wildcard pattern (see expandKeyword) standing for the keywords
+	 * it matches. The matched keywords are searched as with topKSearch, in pattern order and
+	 * sorted order within a pattern, which is also the order ties in frequency are broken in.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param patterns Keywords and patterns, in any case
+	 * @return List of documents in which any of the matched keywords occurs, arranged in
+	 *         descending order of frequencies. Empty if there are no matches.
+	 */
+	public ArrayList<String> wildcardSearch(int k, String... patterns) 
+	{
+		lock.readLock().lock();
+		try {
+			ArrayList<String> keywords = new ArrayList<String>();
+			for (String pattern : patterns)
 			{
-				temp.add(keywordsIndex.get(kw1).get(a).document);
-				count++;
-				a++;
+				if (pattern.indexOf('*') < 0 && pattern.indexOf('?') < 0)
+					keywords.add(pattern.toLowerCase());
+				else
+					keywords.addAll(expandKeyword(pattern));
 			}
+			return topKSearch(k, keywords.toArray(new String[keywords.size()]));
+		} finally {
+			lock.readLock().unlock();
 		}
-		if (count < 10 && secondSearch && b < kw2length)
+	}
+	
+	/**
+	 * Returns the keyword dictionary, building it if the keywords changed since it was built.
+	 * The caller must hold the read or the write lock.
+	 */
+	private synchronized TermDictionary termDictionary() 
+	{
+		if (terms == null)
 		{
-			while (count < 10 && b < kw2length)
+			HashSet<String> keywords = new HashSet<String>();
+			for (Map.Entry<String,PostingList> e : keywordsIndex.entrySet())
+			{
+				if (e.getValue().size() > 0)
+					keywords.add(e.getKey());
+			}
+			if (stored != null)
+			{
+				for (String keyword : stored.keywords())
+				{
+					if (!keywordsIndex.containsKey(keyword))
+						keywords.add(keyword);
+				}
+			}
+			terms = new TermDictionary(keywords);
+		}
+		return terms;
+	}
+	
+	/**
+	 * Turns keeping word positions on or off. Positions are needed for phraseSearch and
+	 * proximitySearch, and take extra memory and indexing time, so they are off unless turned
+	 * on. They must be turned on before any document is indexed. saveIndex saves them with the
+	 * index, and loadIndex turns them on or off as the loaded index has them.
+	 * 
+	 * @param positional Whether to keep positions
+	 * @throws IllegalStateException If positions are turned on after documents were indexed
+	 */
+	public void setPositional(boolean positional) 
+	{
+		lock.writeLock().lock();
+		try {
+			if (!positional)
+				positions = null;
+			else if (positions == null)
+			{
+				if (documents.count() > 0)
+					throw new IllegalStateException("positions must be turned on before indexing");
+				positions = new PositionIndex();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Tells if word positions are kept. See setPositional.
+	 * 
+	 * @return True if positions are kept
+	 */
+	public boolean isPositional() 
+	{
+		return positions != null;
+	}
+	
+	/**
+	 * Search result for a phrase, limited to k documents. A document matches if the keywords
+	 * of the phrase occur in it in the same order and at the same distances as in the phrase;
+	 * words of the phrase that are not keywords (noise words, numbers) match any word. So
+	 * "the White Rabbit" matches "a white rabbit" but not "white and rabbit". The result is
+	 * arranged in descending order of the number of times the phrase occurs, ties in the
+	 * order documents were indexed.
+	 * 
+	 * @param phrase Phrase
+	 * @param k Maximum number of documents in the result
+	 * @return List of matching documents. Empty if there are no matches, or the phrase has no keywords.
+	 * @throws IllegalStateException If positions are not kept
+	 */
+	public ArrayList<String> phraseSearch(String phrase, int k) 
+	{
+		long start = System.nanoTime();
+		lock.readLock().lock();
+		try {
+			if (positions == null)
+				throw new IllegalStateException("positions are not kept");
+			ArrayList<String> keywords = new ArrayList<String>();
+			ArrayList<Integer> offsets = new ArrayList<Integer>();
+			StringTokenizer st = new StringTokenizer(phrase);
+			for (int offset = 0; st.hasMoreTokens(); offset++)
+			{
+				String keyword = getKeyword(st.nextToken());
+				if (keyword != null)
+				{
+					keywords.add(keyword);
+					offsets.add(offset);
+				}
+			}
+			DocSet matches = new DocSet(0);
+			DocSet candidates = candidates(keywords);
+			PositionIndex.Cursor[] cursors = new PositionIndex.Cursor[keywords.size()];
+			for (int j = 0; j < cursors.length; j++)
+				cursors[j] = positions.cursor(keywords.get(j));
+			for (int i = 0; candidates != null && i < candidates.size(); i++)
 			{
-				temp.add(keywordsIndex.get(kw2).get(b).document);
-				count++;
-				b++;
+				// candidates are in ascending order of ids, so each cursor only moves forward
+				int doc = candidates.doc(i);
+				int[][] lists = new int[keywords.size()][];
+				boolean found = true;
+				for (int j = 0; j < lists.length && found; j++)
+				{
+					// a cursor that passes the document has no positions for it
+					found = cursors[j].seek(doc);
+					lists[j] = found ? cursors[j].positions() : null;
+				}
+				if (!found)
+					continue;
+				int count = 0;
+				for (int first : lists[0])
+				{
+					int j = 1;
+					while (j < lists.length
+							&& Arrays.binarySearch(lists[j], first + offsets.get(j) - offsets.get(0)) >= 0)
+						j++;
+					if (j == lists.length)
+						count++;
+				}
+				if (count > 0)
+					matches.add(doc, count);
 			}
+			return names(matches.top(k));
+		} finally {
+			lock.readLock().unlock();
+			metrics.searched(EngineMetrics.Search.PHRASE, System.nanoTime() - start);
 		}
-		int i = 0;
-		while (i < temp.size())
+	}
+	
+	/**
+	 * Search result for two keywords within the given number of words of each other, in either
+	 * order, limited to k documents. The result is arranged in descending order of the number of
+	 * occurrences of kw1 that have kw2 that close, ties in the order documents were indexed.
+	 * 
+	 * @param kw1 First keyword, normalized as by getKeyword
+	 * @param kw2 Second keyword, normalized as by getKeyword
+	 * @param distance Most words from kw1 to kw2; 1 means next to each other
+	 * @param k Maximum number of documents in the result
+	 * @return List of matching documents. Empty if there are no matches, or either word is not a keyword.
+	 * @throws IllegalStateException If positions are not kept
+	 */
+	public ArrayList<String> proximitySearch(String kw1, String kw2, int distance, int k) 
+	{
+		long start = System.nanoTime();
+		lock.readLock().lock();
+		try {
+			if (positions == null)
+				throw new IllegalStateException("positions are not kept");
+			DocSet matches = new DocSet(0);
+			kw1 = getKeyword(kw1);
+			kw2 = getKeyword(kw2);
+			if (kw1 == null || kw2 == null)
+				return new ArrayList<String>();
+			DocSet candidates = candidates(Arrays.asList(kw1, kw2));
+			PositionIndex.Cursor c1 = positions.cursor(kw1), c2 = positions.cursor(kw2);
+			for (int i = 0; i < candidates.size(); i++)
+			{
+				int doc = candidates.doc(i);
+				if (!c1.seek(doc) || !c2.seek(doc))
+					continue;
+				int[] a = c1.positions();
+				int[] b = c2.positions();
+				// b[j] is the first position of kw2 not before a[i] - distance
+				int count = 0;
+				int j = 0;
+				for (int p : a)
+				{
+					while (j < b.length && b[j] < p - distance)
+						j++;
+					if (j < b.length && b[j] <= p + distance && (b[j] != p || j + 1 < b.length && b[j+1] <= p + distance))
+						count++;
+				}
+				if (count > 0)
+					matches.add(doc, count);
+			}
+			return names(matches.top(k));
+		} finally {
+			lock.readLock().unlock();
+			metrics.searched(EngineMetrics.Search.PROXIMITY, System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Returns the documents that have all the given keywords, or null if there are no keywords.
+	 */
+	private DocSet candidates(List<String> keywords) 
+	{
+		DocSet set = null;
+		for (String keyword : keywords)
 		{
-			if (!top5.contains(temp.get(i)) && top5.size() < 5)
-				top5.add(temp.get(i));
-			i++;
+			PostingList postings = postings(keyword);
+			DocSet docs = postings == null ? new DocSet(0) : postings.byDoc();
+			set = set == null ? docs : DocSet.and(set, docs);
 		}
-		return top5;
+		return set;
+	}
+	
+	/**
+	 * Returns the names of the given documents.
+	 */
+	private ArrayList<String> names(int[] docs) 
+	{
+		ArrayList<String> result = new ArrayList<String>();
+		for (int doc : docs)
+			result.add(documents.name(doc));
+		return result;
 	}
 }
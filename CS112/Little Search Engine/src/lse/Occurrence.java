@@ -20,6 +20,12 @@ public class Occurrence {
 	 */
 	int frequency;
 	
+	/**
+	 * Positions of the keyword in the document, coded as in PositionIndex, or null if the
+	 * document was tokenized without positions.
+	 */
+	byte[] positions;
+	
 	/**
 	 * Initializes this occurrence with the given document,frequency pair.
 	 * 
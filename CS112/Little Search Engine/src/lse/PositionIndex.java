@@ -0,0 +1,346 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * Word positions of keywords in documents, for phrase and proximity searches. Each keyword
+ * has one byte stream with an entry per document, in ascending order of document ids: the
+ * gap from the previous document id, the number of bytes of positions, and the positions
+ * of the keyword in the document (word numbers, counting every word of the document from 0)
+ * in ascending order, each as the gap from the previous position (the first one as it is).
+ * All numbers are varints: 7 bits per byte, low bits first, the high bit set on all bytes
+ * but the last. Most gaps take a single byte. A stream is read front to back with a Cursor,
+ * so matching documents are visited in ascending order of ids. The streams of an index
+ * file are read from the file until a keyword is changed, and only then copied to the heap.
+ *
+ */
+public class PositionIndex {
+
+	/**
+	 * Positions of one keyword, in data[0..length-1].
+	 */
+	static class Positions {
+		byte[] data = new byte[16];
+		int length;
+		int lastDoc = -1;
+
+		Positions() {
+		}
+
+		/**
+		 * Wraps a whole stream.
+		 */
+		Positions(byte[] data) {
+			this.data = data;
+			length = data.length;
+			Cursor c = new Cursor(this);
+			while (c.next()) {
+				lastDoc = c.doc;
+			}
+		}
+
+		/**
+		 * Adds the positions of a document. Documents are expected in ascending order of ids;
+		 * others are inserted in their place, replacing the positions the document already
+		 * has, which rewrites the stream.
+		 *
+		 * @param doc Document id
+		 * @param positions Encoded positions
+		 */
+		void add(int doc, byte[] positions) {
+			if (doc > lastDoc) {
+				append(doc - Math.max(lastDoc, 0), positions);
+				lastDoc = doc;
+				return;
+			}
+			Positions copy = new Positions();
+			Cursor c = new Cursor(this);
+			boolean added = false;
+			while (c.next()) {
+				if (!added && c.doc >= doc) {
+					copy.add(doc, positions);
+					added = true;
+				}
+				if (c.doc != doc) {
+					copy.add(c.doc, Arrays.copyOfRange(data, c.start, c.end));
+				}
+			}
+			data = copy.data;
+			length = copy.length;
+			lastDoc = copy.lastDoc;
+		}
+
+		/**
+		 * Removes the positions of a document, which rewrites the stream.
+		 *
+		 * @param doc Document id
+		 * @return True if the document was found
+		 */
+		boolean remove(int doc) {
+			Positions copy = new Positions();
+			Cursor c = new Cursor(this);
+			boolean found = false;
+			while (c.next()) {
+				if (c.doc == doc) {
+					found = true;
+				} else {
+					copy.add(c.doc, Arrays.copyOfRange(data, c.start, c.end));
+				}
+			}
+			data = copy.data;
+			length = copy.length;
+			lastDoc = copy.lastDoc;
+			return found;
+		}
+
+		private void append(int gap, byte[] positions) {
+			if (length + 10 + positions.length > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, length + 10 + positions.length));
+			}
+			length = writeVarint(data, length, gap);
+			length = writeVarint(data, length, positions.length);
+			System.arraycopy(positions, 0, data, length, positions.length);
+			length += positions.length;
+		}
+	}
+
+	/**
+	 * Reads the entries of a positions stream in order.
+	 */
+	static class Cursor {
+		private final Positions list;
+		private int next;
+		private boolean started;
+
+		/**
+		 * Current document id, and where its positions start and end in the stream.
+		 */
+		int doc, start, end;
+
+		Cursor(Positions list) {
+			this.list = list;
+		}
+
+		/**
+		 * Moves to the next document.
+		 *
+		 * @return False if there are no more documents
+		 */
+		boolean next() {
+			if (list == null || next >= list.length) {
+				return false;
+			}
+			doc += read();
+			int n = read();
+			start = next;
+			end = next = start + n;
+			started = true;
+			return true;
+		}
+
+		private int read() {
+			int v = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = list.data[next++];
+				v |= (b & 0x7f) << shift;
+				if (b >= 0) {
+					return v;
+				}
+			}
+		}
+
+		/**
+		 * Moves forward to the given document, skipping the positions of those before it.
+		 *
+		 * @param target Document id, not before the current one
+		 * @return True if the keyword is in the document
+		 */
+		boolean seek(int target) {
+			while (!started || doc < target) {
+				if (!next()) {
+					return false;
+				}
+			}
+			return doc == target;
+		}
+
+		/**
+		 * Returns the decoded positions of the current document.
+		 */
+		int[] positions() {
+			return decode(list.data, start, end);
+		}
+	}
+
+	private final HashMap<String,Positions> lists = new HashMap<String,Positions>();
+
+	/**
+	 * Index file the positions were loaded from, or null. A keyword in lists hides its
+	 * stream in the file, even if its list is empty.
+	 */
+	private final IndexFile stored;
+
+	/**
+	 * Initializes an empty position index.
+	 */
+	public PositionIndex() {
+		this(null);
+	}
+
+	/**
+	 * Initializes a position index over the positions of an index file.
+	 *
+	 * @param stored Index file that has positions, or null
+	 */
+	public PositionIndex(IndexFile stored) {
+		this.stored = stored;
+	}
+
+	/**
+	 * Returns the positions list of a keyword, reading it from the index file if it has
+	 * not been changed, without keeping it.
+	 *
+	 * @param keyword Keyword
+	 * @return Positions of the keyword, or null if it has none
+	 */
+	Positions get(String keyword) {
+		Positions p = lists.get(keyword);
+		if (p == null && stored != null) {
+			byte[] data = stored.positions(keyword);
+			if (data != null) {
+				p = new Positions(data);
+			}
+		}
+		return p;
+	}
+
+	/**
+	 * Returns the positions list of a keyword, adding an empty one if there is none.
+	 *
+	 * @param keyword Keyword
+	 * @return Positions of the keyword
+	 */
+	Positions writable(String keyword) {
+		Positions p = lists.get(keyword);
+		if (p == null) {
+			p = get(keyword);
+			if (p == null) {
+				p = new Positions();
+			}
+			lists.put(keyword, p);
+		}
+		return p;
+	}
+
+	/**
+	 * Removes the positions of a keyword in a document.
+	 *
+	 * @param keyword Keyword
+	 * @param doc Document id
+	 */
+	void remove(String keyword, int doc) {
+		Positions p = get(keyword);
+		if (p != null && p.remove(doc)) {
+			if (p.length > 0 || stored != null) {
+				lists.put(keyword, p);
+			} else {
+				lists.remove(keyword);
+			}
+		}
+	}
+
+	/**
+	 * Copies the positions still in the index file to the heap, and lets go of the file.
+	 * Returns an index that no longer reads the file.
+	 *
+	 * @return Position index on the heap
+	 */
+	PositionIndex loadAll() {
+		if (stored == null) {
+			return this;
+		}
+		PositionIndex all = new PositionIndex();
+		for (Map.Entry<String,Positions> e : lists.entrySet()) {
+			if (e.getValue().length > 0) {
+				all.lists.put(e.getKey(), e.getValue());
+			}
+		}
+		for (String keyword : stored.keywords()) {
+			Positions p = lists.containsKey(keyword) ? null : get(keyword);
+			if (p != null && p.length > 0) {
+				all.lists.put(keyword, p);
+			}
+		}
+		return all;
+	}
+
+	/**
+	 * Returns a cursor over the documents of a keyword.
+	 *
+	 * @param keyword Keyword
+	 * @return Cursor, with no documents if the keyword has no positions
+	 */
+	Cursor cursor(String keyword) {
+		return new Cursor(get(keyword));
+	}
+
+	/**
+	 * Returns the positions of a keyword in a document.
+	 *
+	 * @param keyword Keyword
+	 * @param doc Document id
+	 * @return Positions in ascending order, or null if the keyword is not in the document
+	 */
+	public int[] positions(String keyword, int doc) {
+		Cursor c = cursor(keyword);
+		return c.seek(doc) ? c.positions() : null;
+	}
+
+	/**
+	 * Returns the number of bytes in the arrays of the index on the heap, including unused
+	 * capacity; streams still in the index file are not counted.
+	 *
+	 * @return Bytes
+	 */
+	public long bytes() {
+		long bytes = 0;
+		for (Positions p : lists.values()) {
+			bytes += p.data.length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes v as a varint at buf[pos], and returns the position after it. There must be room
+	 * for 5 bytes.
+	 */
+	static int writeVarint(byte[] buf, int pos, int v) {
+		while ((v & ~0x7f) != 0) {
+			buf[pos++] = (byte)(v & 0x7f | 0x80);
+			v >>>= 7;
+		}
+		buf[pos++] = (byte)v;
+		return pos;
+	}
+
+	/**
+	 * Decodes the gap coded positions in data[from..to-1].
+	 */
+	static int[] decode(byte[] data, int from, int to) {
+		int[] positions = new int[to - from];
+		int n = 0, position = 0;
+		for (int i = from; i < to; ) {
+			int v = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = data[i++];
+				v |= (b & 0x7f) << shift;
+				if (b >= 0) {
+					break;
+				}
+			}
+			position += v;
+			positions[n++] = position;
+		}
+		return Arrays.copyOf(positions, n);
+	}
+}
@@ -0,0 +1,500 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * The occurrences of one keyword, stored compactly as parallel arrays of document ids
+ * and frequencies. Postings are kept in DESCENDING order of frequencies; postings with
+ * the same frequency are kept in the order they were added.
+ *
+ * Postings are stored in segments, log structured: new postings go into a small segment
+ * that is sorted as it is written, and is sealed (made immutable) once it holds
+ * SEGMENT_POSTINGS postings. Sealed segments are merged with each other and into the base
+ * segment, the oldest postings, by the SegmentMerger thread, so that no segment is ever
+ * more than twice as big as the next newer one. Adding a posting therefore costs at most
+ * a shift within the small segment, however long the list is. Readers see all segments
+ * merged into one run, which is built when first asked for after a change.
+ *
+ */
+public class PostingList {
+
+	/**
+	 * Number of postings of a segment when it is sealed.
+	 */
+	static final int SEGMENT_POSTINGS = 128;
+
+	/**
+	 * Postings sorted on descending frequencies, in positions 0..size-1. Never changed once built.
+	 */
+	static final class Run {
+		static final Run EMPTY = new Run(new int[0], new int[0], 0);
+
+		final int[] docs;
+		final int[] freqs;
+		final int size;
+
+		/**
+		 * The same postings in ascending order of document ids, built when first asked for,
+		 * or null. Runs merged from, or copied from, runs that have it get it too.
+		 */
+		private volatile DocSet byDoc;
+
+		Run(int[] docs, int[] freqs, int size) {
+			this.docs = docs;
+			this.freqs = freqs;
+			this.size = size;
+		}
+
+		/**
+		 * Merges two runs; postings of the older run come first among equal frequencies.
+		 */
+		static Run merge(Run older, Run newer) {
+			if (newer.size == 0) {
+				return older;
+			}
+			if (older.size == 0) {
+				return newer;
+			}
+			int n = older.size + newer.size;
+			int[] docs = new int[n];
+			int[] freqs = new int[n];
+			int i = 0, j = 0;
+			for (int k = 0; k < n; k++) {
+				if (j == newer.size || (i < older.size && older.freqs[i] >= newer.freqs[j])) {
+					docs[k] = older.docs[i];
+					freqs[k] = older.freqs[i++];
+				} else {
+					docs[k] = newer.docs[j];
+					freqs[k] = newer.freqs[j++];
+				}
+			}
+			Run merged = new Run(docs, freqs, n);
+			if (older.byDoc != null && newer.byDoc != null) {
+				// a list has one posting per document, so the union only interleaves them
+				merged.byDoc = DocSet.or(older.byDoc, newer.byDoc);
+			}
+			return merged;
+		}
+
+		/**
+		 * Returns the postings in ascending order of document ids, sorting them the first time.
+		 */
+		DocSet byDoc() {
+			DocSet set = byDoc;
+			if (set == null) {
+				long[] keys = new long[size];
+				for (int i = 0; i < size; i++) {
+					keys[i] = (long)docs[i] << 32 | freqs[i];
+				}
+				Arrays.sort(keys);
+				set = new DocSet(size);
+				for (int i = 0; i < size; i++) {
+					set.add((int)(keys[i] >>> 32), (int)keys[i]);
+				}
+				byDoc = set;
+			}
+			return set;
+		}
+
+		/**
+		 * Returns the position of the given posting, or -1 if it is not in the run.
+		 */
+		int find(int doc, int freq) {
+			int min = 0;
+			int max = size - 1;
+			while (min <= max) {
+				int mid = (min + max) >>> 1;
+				if (freqs[mid] > freq) {
+					min = mid + 1;
+				} else {
+					max = mid - 1;
+				}
+			}
+			for (int i = min; i < size && freqs[i] == freq; i++) {
+				if (docs[i] == doc) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns a copy of the run without the posting at position i.
+		 */
+		Run without(int i) {
+			int[] d = new int[size - 1];
+			int[] f = new int[size - 1];
+			System.arraycopy(docs, 0, d, 0, i);
+			System.arraycopy(freqs, 0, f, 0, i);
+			System.arraycopy(docs, i + 1, d, i, size - i - 1);
+			System.arraycopy(freqs, i + 1, f, i, size - i - 1);
+			Run run = new Run(d, f, size - 1);
+			DocSet set = byDoc;
+			if (set != null) {
+				run.byDoc = set.without(docs[i]);
+			}
+			return run;
+		}
+
+		/**
+		 * Returns a copy of the run in arrays of exactly its size.
+		 */
+		Run trimmed() {
+			if (docs.length == size) {
+				return this;
+			}
+			Run run = new Run(Arrays.copyOf(docs, size), Arrays.copyOf(freqs, size), size);
+			run.byDoc = byDoc;
+			return run;
+		}
+	}
+
+	/**
+	 * The keyword.
+	 */
+	final String keyword;
+
+	/**
+	 * The oldest postings, and the sealed segments after them, oldest first (null if none).
+	 */
+	private Run base;
+	private ArrayList<Run> sealed;
+
+	/**
+	 * The segment being written, in positions 0..tailSize-1.
+	 */
+	private int[] tailDocs;
+	private int[] tailFreqs;
+	private int tailSize;
+
+	/**
+	 * Changed whenever the base or a sealed segment is replaced other than by the merger,
+	 * so the merger can tell that the segments it merged are gone.
+	 */
+	private int version;
+
+	/**
+	 * Whether the list is waiting for, or being worked on by, the merger.
+	 */
+	private boolean scheduled;
+
+	/**
+	 * All postings merged into one run, built when first asked for and dropped when the list
+	 * changes. Merging segments does not change it.
+	 */
+	private volatile Run view;
+
+	/**
+	 * The same postings in ascending order of document ids, built when first asked for
+	 * and dropped when the list changes. It is built by merging the document order of each
+	 * segment, which the segment keeps, so after a change only the segment being written
+	 * is sorted again.
+	 */
+	private volatile DocSet byDoc;
+
+	/**
+	 * Initializes an empty posting list.
+	 *
+	 * @param keyword The keyword
+	 */
+	public PostingList(String keyword) {
+		this(keyword, Run.EMPTY);
+	}
+
+	/**
+	 * Initializes a posting list with the given postings, which must be sorted on descending
+	 * frequencies. The arrays are used as they are.
+	 *
+	 * @param keyword The keyword
+	 * @param docs Document ids
+	 * @param freqs Frequencies
+	 */
+	PostingList(String keyword, int[] docs, int[] freqs) {
+		this(keyword, new Run(docs, freqs, docs.length));
+	}
+
+	private PostingList(String keyword, Run base) {
+		this.keyword = keyword;
+		this.base = base;
+		view = base;
+		tailDocs = new int[2];
+		tailFreqs = new int[2];
+	}
+
+	/**
+	 * Returns a new list of the postings of two lists of the same keyword; among postings with
+	 * the same frequency, those of the older list come first.
+	 *
+	 * @param older Earlier postings
+	 * @param newer Later postings
+	 * @return Merged list
+	 */
+	static PostingList merge(PostingList older, PostingList newer) {
+		return new PostingList(older.keyword, Run.merge(older.view(), newer.view()));
+	}
+
+	/**
+	 * Returns the number of postings.
+	 *
+	 * @return Number of postings
+	 */
+	public int size() {
+		return view().size;
+	}
+
+	/**
+	 * Returns the document id of the i-th posting.
+	 *
+	 * @param i Posting index, 0 is the highest frequency
+	 * @return Document id
+	 */
+	public int doc(int i) {
+		return view().docs[i];
+	}
+
+	/**
+	 * Returns the frequency of the i-th posting.
+	 *
+	 * @param i Posting index, 0 is the highest frequency
+	 * @return Frequency
+	 */
+	public int freq(int i) {
+		return view().freqs[i];
+	}
+
+	/**
+	 * Returns all postings as one run.
+	 */
+	private Run view() {
+		Run v = view;
+		return v != null ? v : buildView();
+	}
+
+	private synchronized Run buildView() {
+		if (view == null) {
+			// newest first, so the big merges happen last
+			Run v = new Run(Arrays.copyOf(tailDocs, tailSize), Arrays.copyOf(tailFreqs, tailSize), tailSize);
+			for (int s = sealed == null ? -1 : sealed.size() - 1; s >= 0; s--) {
+				v = Run.merge(sealed.get(s), v);
+			}
+			view = Run.merge(base, v);
+		}
+		return view;
+	}
+
+	/**
+	 * Adds a posting in the correct position, based on ordering postings on descending
+	 * frequencies. The spot is found by binary search in the segment being written, after
+	 * any postings with the same frequency.
+	 *
+	 * @param doc Document id
+	 * @param freq Frequency of the keyword in the document
+	 */
+	public synchronized void add(int doc, int freq) {
+		int min = 0;
+		int max = tailSize - 1;
+		while (min <= max) {
+			int mid = (min + max) >>> 1;
+			if (tailFreqs[mid] >= freq) {
+				min = mid + 1;
+			} else {
+				max = mid - 1;
+			}
+		}
+		if (tailSize == tailDocs.length) {
+			int capacity = Math.min(tailSize * 2, SEGMENT_POSTINGS);
+			tailDocs = Arrays.copyOf(tailDocs, capacity);
+			tailFreqs = Arrays.copyOf(tailFreqs, capacity);
+		}
+		System.arraycopy(tailDocs, min, tailDocs, min + 1, tailSize - min);
+		System.arraycopy(tailFreqs, min, tailFreqs, min + 1, tailSize - min);
+		tailDocs[min] = doc;
+		tailFreqs[min] = freq;
+		tailSize++;
+		if (tailSize == SEGMENT_POSTINGS) {
+			if (sealed == null) {
+				sealed = new ArrayList<Run>();
+			}
+			sealed.add(new Run(tailDocs.clone(), tailFreqs.clone(), tailSize));
+			tailSize = 0;
+			if (!scheduled) {
+				scheduled = true;
+				SegmentMerger.schedule(this);
+			}
+		}
+		view = null;
+		byDoc = null;
+	}
+
+	/**
+	 * Removes the posting of a document. In each segment, the postings with the given
+	 * frequency are found by binary search, and only those are scanned for the document.
+	 *
+	 * @param doc Document id
+	 * @param freq Frequency of the keyword in the document
+	 * @return True if the posting was found and removed, false if not
+	 */
+	public synchronized boolean remove(int doc, int freq) {
+		int i = new Run(tailDocs, tailFreqs, tailSize).find(doc, freq);
+		if (i >= 0) {
+			System.arraycopy(tailDocs, i + 1, tailDocs, i, tailSize - i - 1);
+			System.arraycopy(tailFreqs, i + 1, tailFreqs, i, tailSize - i - 1);
+			tailSize--;
+		} else {
+			int s = sealed == null ? -1 : sealed.size() - 1;
+			while (s >= 0 && (i = sealed.get(s).find(doc, freq)) < 0) {
+				s--;
+			}
+			if (s >= 0) {
+				sealed.set(s, sealed.get(s).without(i));
+			} else if ((i = base.find(doc, freq)) >= 0) {
+				base = base.without(i);
+			} else {
+				return false;
+			}
+			version++;
+		}
+		view = null;
+		byDoc = null;
+		return true;
+	}
+
+	/**
+	 * Does one merge step for the merger thread: merges the newest sealed segments that are
+	 * at least half the size of the segment before them, and the base too if it is at most
+	 * twice their size. The segments are merged without holding the list's lock, so adding
+	 * postings is not held up.
+	 *
+	 * @return True if there is more to merge
+	 */
+	boolean compact() {
+		Run[] inputs;
+		int first, end, startVersion;
+		boolean withBase;
+		synchronized (this) {
+			end = sealed == null ? 0 : sealed.size();
+			if (end == 0) {
+				scheduled = false;
+				return false;
+			}
+			first = end - 1;
+			long total = sealed.get(first).size;
+			while (first > 0 && sealed.get(first - 1).size <= 2 * total) {
+				total += sealed.get(--first).size;
+			}
+			withBase = first == 0 && base.size <= 2 * total;
+			if (end - first < 2 && !withBase) {
+				scheduled = false;
+				return false;
+			}
+			inputs = new Run[end - first + 1];
+			inputs[0] = withBase ? base : null;
+			for (int s = first; s < end; s++) {
+				inputs[s - first + 1] = sealed.get(s);
+			}
+			startVersion = version;
+		}
+		Run merged = inputs[inputs.length - 1];
+		for (int s = inputs.length - 2; s >= 0; s--) {
+			if (inputs[s] != null) {
+				merged = Run.merge(inputs[s], merged);
+			}
+		}
+		synchronized (this) {
+			if (version == startVersion) {
+				sealed.subList(first, end).clear();
+				if (withBase) {
+					base = merged;
+				} else {
+					sealed.add(first, merged);
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the postings in ascending order of document ids, with the frequencies as scores.
+	 * The returned set must not be changed.
+	 *
+	 * @return Postings sorted by document id
+	 */
+	public DocSet byDoc() {
+		DocSet set = byDoc;
+		return set != null ? set : buildByDoc();
+	}
+
+	private synchronized DocSet buildByDoc() {
+		if (byDoc == null) {
+			DocSet set = new Run(tailDocs, tailFreqs, tailSize).byDoc();
+			for (int s = sealed == null ? -1 : sealed.size() - 1; s >= 0; s--) {
+				set = union(sealed.get(s).byDoc(), set);
+			}
+			byDoc = union(base.byDoc(), set);
+		}
+		return byDoc;
+	}
+
+	private static DocSet union(DocSet a, DocSet b) {
+		return b.size() == 0 ? a : a.size() == 0 ? b : DocSet.or(a, b);
+	}
+
+	/**
+	 * Merges all segments into the base, with arrays of exactly the number of postings.
+	 * Done for every list at the end of a build, and by the merger (see trimIfMerged).
+	 */
+	public synchronized void trim() {
+		Run v = view();
+		base = v.trimmed();
+		if (base.byDoc == null) {
+			base.byDoc = byDoc;
+		}
+		view = base;
+		sealed = null;
+		tailSize = 0;
+		tailDocs = new int[2];
+		tailFreqs = new int[2];
+		version++;
+	}
+
+	/**
+	 * Trims the list if none of its segments is sealed, for the merger once the list has no
+	 * more merge steps. The sealed segments were then just merged into the base, so folding
+	 * in the segment being written costs about as much as that merge did.
+	 */
+	synchronized void trimIfMerged() {
+		if (sealed != null && sealed.isEmpty()) {
+			trim();
+		}
+	}
+
+	/**
+	 * Returns the postings as a list of occurrences, in the same order.
+	 *
+	 * @param table Document table the ids refer to
+	 * @return List of occurrences, in descending order of frequencies
+	 */
+	public ArrayList<Occurrence> toOccurrences(DocumentTable table) {
+		Run v = view();
+		ArrayList<Occurrence> occs = new ArrayList<Occurrence>(v.size);
+		for (int i = 0; i < v.size; i++) {
+			occs.add(new Occurrence(table.name(v.docs[i]), v.freqs[i]));
+		}
+		return occs;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		Run v = view();
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < v.size; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append('(').append(v.docs[i]).append(',').append(v.freqs[i]).append(')');
+		}
+		return sb.append(']').toString();
+	}
+}
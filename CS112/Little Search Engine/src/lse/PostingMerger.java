@@ -0,0 +1,125 @@
+package lse;
+
+/**
+ * K-way merge of posting lists into one sequence in descending order of frequencies.
+ * The lists are kept in a binary heap on the frequency of their current posting; postings
+ * with the same frequency come out in the order of the lists they belong to, so ties are
+ * broken in favor of the earlier list.
+ *
+ */
+class PostingMerger {
+
+	/**
+	 * The lists, and the index of the current posting of each.
+	 */
+	private final PostingList[] lists;
+	private final int[] positions;
+
+	/**
+	 * Heap of list indexes, with the list whose current posting comes first on top.
+	 */
+	private final int[] heap;
+	private int heapSize;
+
+	/**
+	 * Initializes the merge.
+	 *
+	 * @param lists Posting lists, earlier lists winning ties; null and empty lists are skipped
+	 */
+	PostingMerger(PostingList[] lists) {
+		this.lists = lists;
+		positions = new int[lists.length];
+		heap = new int[lists.length];
+		for (int i = 0; i < lists.length; i++) {
+			if (lists[i] != null && lists[i].size() > 0) {
+				heap[heapSize] = i;
+				siftUp(heapSize++);
+			}
+		}
+	}
+
+	/**
+	 * Tells if there are postings left.
+	 *
+	 * @return True if there is a current posting
+	 */
+	boolean hasNext() {
+		return heapSize > 0;
+	}
+
+	/**
+	 * Index of the list the current posting belongs to.
+	 */
+	int list() {
+		return heap[0];
+	}
+
+	/**
+	 * Document id of the current posting.
+	 */
+	int doc() {
+		return lists[heap[0]].doc(positions[heap[0]]);
+	}
+
+	/**
+	 * Frequency of the current posting.
+	 */
+	int freq() {
+		return lists[heap[0]].freq(positions[heap[0]]);
+	}
+
+	/**
+	 * Moves on to the next posting.
+	 */
+	void next() {
+		int top = heap[0];
+		if (++positions[top] == lists[top].size()) {
+			heap[0] = heap[--heapSize];
+		}
+		siftDown(0);
+	}
+
+	/**
+	 * Tells if the current posting of list a comes before that of list b.
+	 */
+	private boolean before(int a, int b) {
+		int fa = lists[a].freq(positions[a]);
+		int fb = lists[b].freq(positions[b]);
+		return fa > fb || (fa == fb && a < b);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!before(heap[i], heap[parent])) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int first = i;
+			int left = 2*i + 1, right = left + 1;
+			if (left < heapSize && before(heap[left], heap[first])) {
+				first = left;
+			}
+			if (right < heapSize && before(heap[right], heap[first])) {
+				first = right;
+			}
+			if (first == i) {
+				return;
+			}
+			swap(i, first);
+			i = first;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int t = heap[i];
+		heap[i] = heap[j];
+		heap[j] = t;
+	}
+}
@@ -0,0 +1,242 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * Bounded cache of search results, keyed by the normalized query: the result limit and the
+ * distinct keywords in query order (keyword order breaks frequency ties, so it is kept).
+ * Entries are evicted in least recently used order once there are more than the given number
+ * of entries, or their estimated size is more than the given number of bytes.
+ *
+ * The cache also maps each keyword to the entries whose query has it, so that a change to
+ * the posting list of a keyword drops exactly the results that may have changed.
+ *
+ * All methods are synchronized; the engine calls them with its read lock (lookups and new
+ * results) or its write lock (invalidation) held, so a result computed before a change can
+ * not be stored after the change has invalidated it.
+ *
+ */
+public class QueryCache {
+
+	/**
+	 * Estimated bytes of an entry besides its key characters and result references: the
+	 * map entry and list objects, and one keyword table entry per keyword.
+	 */
+	static final int ENTRY_OVERHEAD = 128, KEYWORD_OVERHEAD = 48;
+
+	private static class Entry {
+		final String[] keywords;
+		final ArrayList<String> result;
+		final long bytes;
+
+		Entry(String key, String[] keywords, ArrayList<String> result) {
+			this.keywords = keywords;
+			this.result = result;
+			bytes = ENTRY_OVERHEAD + 2L * key.length() + 8L * result.size()
+					+ (long)KEYWORD_OVERHEAD * keywords.length;
+		}
+	}
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private long bytes;
+
+	/**
+	 * Entries in least recently used order.
+	 */
+	private final LinkedHashMap<String,Entry> entries;
+
+	/**
+	 * Keys of the entries whose query has each keyword.
+	 */
+	private final HashMap<String,HashSet<String>> byKeyword;
+
+	private long hits, misses, evictions, invalidations;
+
+	/**
+	 * Initializes an empty cache.
+	 *
+	 * @param maxEntries Most entries kept
+	 * @param maxBytes Most estimated bytes kept
+	 */
+	public QueryCache(int maxEntries, long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		entries = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+		byKeyword = new HashMap<String,HashSet<String>>();
+	}
+
+	/**
+	 * Returns the distinct keywords of a query, in query order.
+	 *
+	 * @param keywords Keywords of the query
+	 * @return Keywords without repeats
+	 */
+	static String[] distinct(String... keywords) {
+		return new LinkedHashSet<String>(Arrays.asList(keywords)).toArray(new String[0]);
+	}
+
+	/**
+	 * Returns the cache key of a top k query.
+	 *
+	 * @param k Result limit
+	 * @param keywords Distinct keywords, in query order
+	 * @return Cache key
+	 */
+	static String key(int k, String[] keywords) {
+		StringBuilder sb = new StringBuilder().append(k);
+		for (String keyword : keywords) {
+			sb.append('\0').append(keyword);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Looks up a cached result, and counts the hit or miss. Nothing is counted when the
+	 * cache is off (no entries or no bytes allowed), so the hit rate is that of a cache.
+	 *
+	 * @param key Cache key
+	 * @return Copy of the cached result, or null if it is not cached
+	 */
+	public synchronized ArrayList<String> get(String key) {
+		if (maxEntries <= 0 || maxBytes <= 0) {
+			return null;
+		}
+		Entry e = entries.get(key);
+		if (e == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return new ArrayList<String>(e.result);
+	}
+
+	/**
+	 * Caches a result, evicting least recently used entries if the cache gets too big.
+	 *
+	 * @param key Cache key
+	 * @param keywords Distinct keywords of the query
+	 * @param result Result of the query; a copy is kept
+	 */
+	public synchronized void put(String key, String[] keywords, ArrayList<String> result) {
+		Entry e = new Entry(key, keywords, new ArrayList<String>(result));
+		if (maxEntries <= 0 || e.bytes > maxBytes) {
+			return;
+		}
+		remove(key);
+		entries.put(key, e);
+		bytes += e.bytes;
+		for (String keyword : keywords) {
+			HashSet<String> keys = byKeyword.get(keyword);
+			if (keys == null) {
+				keys = new HashSet<String>();
+				byKeyword.put(keyword, keys);
+			}
+			keys.add(key);
+		}
+		while (entries.size() > maxEntries || bytes > maxBytes) {
+			remove(entries.keySet().iterator().next());
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops every cached result whose query has any of the given keywords.
+	 *
+	 * @param keywords Keywords whose posting lists changed
+	 */
+	public synchronized void invalidate(String... keywords) {
+		for (String keyword : keywords) {
+			HashSet<String> keys = byKeyword.get(keyword);
+			if (keys != null) {
+				for (String key : new ArrayList<String>(keys)) {
+					if (remove(key)) {
+						invalidations++;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops every cached result.
+	 */
+	public synchronized void clear() {
+		invalidations += entries.size();
+		entries.clear();
+		byKeyword.clear();
+		bytes = 0;
+	}
+
+	private boolean remove(String key) {
+		Entry e = entries.remove(key);
+		if (e == null) {
+			return false;
+		}
+		bytes -= e.bytes;
+		for (String keyword : e.keywords) {
+			HashSet<String> keys = byKeyword.get(keyword);
+			keys.remove(key);
+			if (keys.isEmpty()) {
+				byKeyword.remove(keyword);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of cached results.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the estimated bytes of the cached results.
+	 */
+	public synchronized long bytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of lookups that found a cached result.
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that did not.
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of results evicted to keep the cache within its bounds.
+	 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of results dropped because the index changed.
+	 */
+	public synchronized long invalidations() {
+		return invalidations;
+	}
+
+	/**
+	 * Returns the fraction of lookups that were hits.
+	 *
+	 * @return Hit rate, 0 if there were no lookups
+	 */
+	public synchronized double hitRate() {
+		return hits + misses == 0 ? 0 : hits / (double)(hits + misses);
+	}
+
+	public synchronized String toString() {
+		return String.format("%d entries, %d bytes, %d hits, %d misses (%.1f%% hits), %d evictions, %d invalidations",
+				entries.size(), bytes, hits, misses, 100 * hitRate(), evictions, invalidations);
+	}
+}
@@ -0,0 +1,162 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * Top-k retrieval for the scored rankings, with max-score pruning. Keywords are ordered by
+ * the upper bound of their scores. The keywords with the lowest bounds, as long as their
+ * bounds together cannot lift a document into the current top k, are "non-essential": only
+ * documents of the other keywords are candidates, and a candidate's non-essential keywords
+ * are looked up (by galloping search) only while its score could still make the top k.
+ *
+ */
+class RankedSearch {
+
+	/**
+	 * Returns the k best documents of the given keywords.
+	 *
+	 * @param ranking Scoring function
+	 * @param postings Posting list of each keyword, none of them empty
+	 * @param documents Document table, for document lengths and collection statistics
+	 * @param k Maximum number of documents
+	 * @return Document ids, in descending order of scores, ties in ascending order of ids
+	 */
+	static int[] top(Ranking ranking, PostingList[] postings, DocumentTable documents, int k) {
+		int n = documents.count();
+		double avgdl = documents.averageLength();
+
+		// keywords in ascending order of bounds, and the running sum of the bounds
+		int m = postings.length;
+		Integer[] order = new Integer[m];
+		final double[] bounds = new double[m];
+		DocSet[] lists = new DocSet[m];
+		for (int i = 0; i < m; i++) {
+			order[i] = i;
+			// the first posting has the highest frequency
+			bounds[i] = ranking.bound(postings[i].freq(0), postings[i].size(), n, avgdl);
+			lists[i] = postings[i].byDoc();
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(bounds[a], bounds[b]);
+			}
+		});
+		DocSet[] sorted = new DocSet[m];
+		double[] sums = new double[m];
+		for (int i = 0; i < m; i++) {
+			sorted[i] = lists[order[i]];
+			sums[i] = bounds[order[i]] + (i > 0 ? sums[i-1] : 0);
+		}
+
+		// min-heap of the best documents so far, worst on top
+		double[] heapScores = new double[k];
+		int[] heapDocs = new int[k];
+		int heapSize = 0;
+
+		int[] pos = new int[m];
+		int firstEssential = 0;
+		while (k > 0) {
+			boolean full = heapSize == k;
+			while (full && firstEssential < m && sums[firstEssential] <= heapScores[0]) {
+				firstEssential++;
+			}
+			int doc = Integer.MAX_VALUE;
+			for (int i = firstEssential; i < m; i++) {
+				if (pos[i] < sorted[i].size()) {
+					doc = Math.min(doc, sorted[i].doc(pos[i]));
+				}
+			}
+			if (doc == Integer.MAX_VALUE) {
+				break;
+			}
+
+			int dl = documents.length(doc);
+			double score = 0;
+			for (int i = firstEssential; i < m; i++) {
+				if (pos[i] < sorted[i].size() && sorted[i].doc(pos[i]) == doc) {
+					score += ranking.score(sorted[i].score(pos[i]), dl, sorted[i].size(), n, avgdl);
+					pos[i]++;
+				}
+			}
+			boolean pruned = false;
+			for (int i = firstEssential - 1; i >= 0; i--) {
+				if (full && score + sums[i] <= heapScores[0]) {
+					pruned = true;
+					break;
+				}
+				pos[i] = DocSet.gallop(sorted[i], doc, pos[i]);
+				if (pos[i] < sorted[i].size() && sorted[i].doc(pos[i]) == doc) {
+					score += ranking.score(sorted[i].score(pos[i]), dl, sorted[i].size(), n, avgdl);
+				}
+			}
+			if (pruned || (full && score <= heapScores[0])) {
+				// documents come in ascending order of ids, so an equal score loses the tie
+				continue;
+			}
+			if (full) {
+				heapScores[0] = score;
+				heapDocs[0] = doc;
+				siftDown(heapScores, heapDocs, heapSize, 0);
+			} else {
+				heapScores[heapSize] = score;
+				heapDocs[heapSize] = doc;
+				siftUp(heapScores, heapDocs, heapSize++);
+			}
+		}
+
+		// best first
+		int[] top = new int[heapSize];
+		for (int i = heapSize - 1; i >= 0; i--) {
+			top[i] = heapDocs[0];
+			heapScores[0] = heapScores[i];
+			heapDocs[0] = heapDocs[i];
+			siftDown(heapScores, heapDocs, i, 0);
+		}
+		return top;
+	}
+
+	/**
+	 * Tells if heap entry a is worse than entry b: a lower score, or the same score and a later document.
+	 */
+	private static boolean worse(double[] scores, int[] docs, int a, int b) {
+		return scores[a] < scores[b] || (scores[a] == scores[b] && docs[a] > docs[b]);
+	}
+
+	private static void siftUp(double[] scores, int[] docs, int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!worse(scores, docs, i, parent)) {
+				break;
+			}
+			swap(scores, docs, i, parent);
+			i = parent;
+		}
+	}
+
+	private static void siftDown(double[] scores, int[] docs, int size, int i) {
+		while (true) {
+			int worst = i;
+			int left = 2*i + 1, right = left + 1;
+			if (left < size && worse(scores, docs, left, worst)) {
+				worst = left;
+			}
+			if (right < size && worse(scores, docs, right, worst)) {
+				worst = right;
+			}
+			if (worst == i) {
+				return;
+			}
+			swap(scores, docs, i, worst);
+			i = worst;
+		}
+	}
+
+	private static void swap(double[] scores, int[] docs, int i, int j) {
+		double s = scores[i];
+		scores[i] = scores[j];
+		scores[j] = s;
+		int d = docs[i];
+		docs[i] = docs[j];
+		docs[j] = d;
+	}
+}
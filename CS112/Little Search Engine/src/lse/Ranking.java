@@ -0,0 +1,65 @@
+package lse;
+
+/**
+ * Ways of ranking search results.
+ *
+ */
+public enum Ranking {
+
+	/**
+	 * Frequency of the keyword in the document, the ranking of top5search.
+	 */
+	FREQUENCY {
+		double score(int tf, int dl, int df, int n, double avgdl) {
+			return tf;
+		}
+	},
+
+	/**
+	 * Term frequency, normalized by document length, times inverse document frequency.
+	 */
+	TF_IDF {
+		double score(int tf, int dl, int df, int n, double avgdl) {
+			return tf / (double)Math.max(dl, 1) * Math.log(1 + n / (double)df);
+		}
+	},
+
+	/**
+	 * Okapi BM25, with k1 = 1.2 and b = 0.75.
+	 */
+	BM25 {
+		double score(int tf, int dl, int df, int n, double avgdl) {
+			double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+			return idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * dl / Math.max(avgdl, 1)));
+		}
+	};
+
+	static final double K1 = 1.2, B = 0.75;
+
+	/**
+	 * Score of one keyword in one document. A document is at least as long as the frequency of
+	 * any of its keywords, and for every ranking score(tf, dl) &lt;= score(maxTf, maxTf) when
+	 * tf &lt;= maxTf and dl &gt;= tf, so bound gives an upper bound for all documents of a keyword.
+	 *
+	 * @param tf Frequency of the keyword in the document
+	 * @param dl Length of the document
+	 * @param df Number of documents the keyword occurs in
+	 * @param n Number of documents
+	 * @param avgdl Average document length
+	 * @return Score
+	 */
+	abstract double score(int tf, int dl, int df, int n, double avgdl);
+
+	/**
+	 * Upper bound of the score of a keyword in any of its documents.
+	 *
+	 * @param maxTf Highest frequency of the keyword in a document
+	 * @param df Number of documents the keyword occurs in
+	 * @param n Number of documents
+	 * @param avgdl Average document length
+	 * @return Upper bound of score
+	 */
+	double bound(int maxTf, int df, int n, double avgdl) {
+		return score(maxTf, maxTf, df, n, avgdl);
+	}
+}
@@ -0,0 +1,46 @@
+package lse;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Background thread that merges the sealed segments of posting lists (see PostingList).
+ * Lists are queued when they seal a segment, and worked on one merge step at a time, in
+ * turn, until none of their segments need merging. A list whose sealed segments have all
+ * been merged into its base is then trimmed. The thread is a daemon, shared by all
+ * posting lists, and started when the first list is queued.
+ *
+ */
+class SegmentMerger {
+
+	private static final LinkedBlockingQueue<PostingList> queue = new LinkedBlockingQueue<PostingList>();
+	private static Thread thread;
+
+	/**
+	 * Queues a posting list for merging.
+	 *
+	 * @param list Posting list with sealed segments
+	 */
+	static synchronized void schedule(PostingList list) {
+		if (thread == null) {
+			thread = new Thread("lse-segment-merger") {
+				public void run() {
+					try {
+						while (true) {
+							PostingList list = queue.take();
+							if (list.compact()) {
+								queue.add(list);
+							} else {
+								list.trimIfMerged();
+							}
+						}
+					} catch (InterruptedException e) {
+						// the thread is a daemon, and only ends with the VM
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+		queue.add(list);
+	}
+}
@@ -0,0 +1,200 @@
+package lse;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A search engine whose index is split across a number of LittleSearchEngine shards in this
+ * process. Documents are dealt to the shards round robin, the shards are indexed at the same
+ * time, and a search is sent to all shards at once; each shard's top k are then merged into
+ * the overall top k. Results are the same as those of a single LittleSearchEngine indexing
+ * the same documents in the same order.
+ *
+ */
+public class ShardedSearchEngine {
+
+	/**
+	 * The shards.
+	 */
+	LittleSearchEngine[] shards;
+
+	/**
+	 * Position of each document in the order documents were given, to break ties between
+	 * shards the way a single index would.
+	 */
+	HashMap<String,Integer> ordinals;
+
+	/**
+	 * Threads that run the shards' indexing and searches.
+	 */
+	private ExecutorService pool;
+
+	/**
+	 * Initializes empty shards.
+	 *
+	 * @param shardCount Number of shards
+	 */
+	public ShardedSearchEngine(int shardCount) {
+		shards = new LittleSearchEngine[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new LittleSearchEngine();
+		}
+		ordinals = new HashMap<String,Integer>();
+		pool = Executors.newFixedThreadPool(shardCount, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "lse-shard");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Indexes all documents listed in the docs file, each shard on its own thread.
+	 * See LittleSearchEngine.makeIndex.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 * @throws UncheckedIOException If there is a problem reading a document
+	 */
+	public void makeIndex(String docsFile, final String noiseWordsFile)
+	throws FileNotFoundException {
+		ArrayList<ArrayList<String>> shardDocs = new ArrayList<ArrayList<String>>();
+		for (int i = 0; i < shards.length; i++) {
+			shardDocs.add(new ArrayList<String>());
+		}
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			String docFile = sc.next();
+			if (!ordinals.containsKey(docFile)) {
+				shardDocs.get(ordinals.size() % shards.length).add(docFile);
+				ordinals.put(docFile, ordinals.size());
+			}
+		}
+		sc.close();
+
+		ArrayList<Future<Void>> builds = new ArrayList<Future<Void>>();
+		for (int i = 0; i < shards.length; i++) {
+			final LittleSearchEngine shard = shards[i];
+			final ArrayList<String> docs = shardDocs.get(i);
+			builds.add(pool.submit(new Callable<Void>() {
+				public Void call() throws FileNotFoundException {
+					shard.loadNoiseWords(noiseWordsFile);
+					shard.indexDocuments(docs, 1);
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> build : builds) {
+			try {
+				build.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while indexing", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof FileNotFoundException) {
+					throw (FileNotFoundException)e.getCause();
+				}
+				if (e.getCause() instanceof UncheckedIOException) {
+					throw (UncheckedIOException)e.getCause();
+				}
+				throw new IllegalStateException("indexing failed", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", limited to 5 documents. See LittleSearchEngine.top5search.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of documents in which either kw1 or kw2 occurs, arranged in descending order of
+	 *         frequencies. Empty if there are no matches.
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		return topKSearch(5, kw1, kw2);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ...", limited to k documents. Every shard is searched at
+	 * the same time, and the shards' results are merged in descending order of frequencies, ties
+	 * in favor of the keyword listed earlier, then of the document given earlier.
+	 * See LittleSearchEngine.topKSearch.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords; repeated keywords count once
+	 * @return List of documents in which any of the keywords occurs, arranged in descending order
+	 *         of frequencies. Empty if there are no matches.
+	 */
+	public ArrayList<String> topKSearch(final int k, final String... keywords) {
+		ArrayList<Future<ArrayList<LittleSearchEngine.Hit>>> searches =
+				new ArrayList<Future<ArrayList<LittleSearchEngine.Hit>>>();
+		for (final LittleSearchEngine shard : shards) {
+			searches.add(pool.submit(new Callable<ArrayList<LittleSearchEngine.Hit>>() {
+				public ArrayList<LittleSearchEngine.Hit> call() {
+					return shard.topKHits(k, keywords);
+				}
+			}));
+		}
+
+		// documents are in one shard only, so the shards' hits need no dedup, just ordering
+		ArrayList<ShardHit> hits = new ArrayList<ShardHit>();
+		for (int s = 0; s < shards.length; s++) {
+			for (LittleSearchEngine.Hit hit : await(searches.get(s))) {
+				String name = shards[s].documents.name(hit.doc);
+				hits.add(new ShardHit(name, hit.freq, hit.keyword, ordinals.get(name)));
+			}
+		}
+		Collections.sort(hits);
+		ArrayList<String> result = new ArrayList<String>();
+		for (int i = 0; i < hits.size() && i < k; i++) {
+			result.add(hits.get(i).document);
+		}
+		return result;
+	}
+
+	/**
+	 * A hit from one shard, ordered as a single index would order it.
+	 */
+	private static class ShardHit implements Comparable<ShardHit> {
+		String document;
+		int freq, keyword, ordinal;
+
+		ShardHit(String document, int freq, int keyword, int ordinal) {
+			this.document = document;
+			this.freq = freq;
+			this.keyword = keyword;
+			this.ordinal = ordinal;
+		}
+
+		public int compareTo(ShardHit o) {
+			if (freq != o.freq) {
+				return freq > o.freq ? -1 : 1;
+			}
+			if (keyword != o.keyword) {
+				return keyword < o.keyword ? -1 : 1;
+			}
+			return Integer.compare(ordinal, o.ordinal);
+		}
+	}
+
+	private static <T> T await(Future<T> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while searching", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("search failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Stops the shard threads. The engine cannot be used after this.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
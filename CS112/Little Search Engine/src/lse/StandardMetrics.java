@@ -0,0 +1,215 @@
+package lse;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.*;
+
+/**
+ * Metrics kept in counters and latency histograms (see LatencyHistogram), one for each kind
+ * of search and one for all of them. Recording takes a few atomic adds, so the metrics can
+ * be left on. They can be read directly, or through JMX once registered (see register).
+ * Query cache and posting list figures are read from the engine when asked for.
+ *
+ * To use, make one for an engine and hand it to the engine:
+ * <pre>
+ *     StandardMetrics metrics = new StandardMetrics(lse);
+ *     lse.setMetrics(metrics);
+ *     metrics.register("main");
+ * </pre>
+ *
+ */
+public class StandardMetrics implements EngineMetrics, StandardMetricsMBean {
+
+	private final LittleSearchEngine engine;
+
+	private final AtomicLong documentsTokenized = new AtomicLong(), words = new AtomicLong(),
+			bytes = new AtomicLong(), tokenizeNanos = new AtomicLong();
+	private final AtomicLong documentsMerged = new AtomicLong(), postings = new AtomicLong(),
+			mergeNanos = new AtomicLong();
+
+	private final EnumMap<Search,LatencyHistogram> searches = new EnumMap<Search,LatencyHistogram>(Search.class);
+	private final LatencyHistogram allSearches = new LatencyHistogram();
+
+	/**
+	 * Initializes metrics for the given engine.
+	 *
+	 * @param engine Engine, read for the query cache and posting list figures
+	 */
+	public StandardMetrics(LittleSearchEngine engine) {
+		this.engine = engine;
+		for (Search s : Search.values()) {
+			searches.put(s, new LatencyHistogram());
+		}
+	}
+
+	public void tokenized(int words, long bytes, long nanos) {
+		documentsTokenized.incrementAndGet();
+		this.words.addAndGet(words);
+		if (bytes > 0) {
+			this.bytes.addAndGet(bytes);
+		}
+		tokenizeNanos.addAndGet(nanos);
+	}
+
+	public void merged(int documents, int postings, long nanos) {
+		documentsMerged.addAndGet(documents);
+		this.postings.addAndGet(postings);
+		mergeNanos.addAndGet(nanos);
+	}
+
+	public void searched(Search search, long nanos) {
+		searches.get(search).record(nanos);
+		allSearches.record(nanos);
+	}
+
+	/**
+	 * Returns the latency histogram, in nanoseconds, of a kind of search.
+	 *
+	 * @param search Kind of search
+	 * @return Histogram
+	 */
+	public LatencyHistogram latencies(Search search) {
+		return searches.get(search);
+	}
+
+	/**
+	 * Returns the latency histogram, in nanoseconds, of all searches.
+	 *
+	 * @return Histogram
+	 */
+	public LatencyHistogram latencies() {
+		return allSearches;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, as "lse:type=SearchEngine,name=" + name.
+	 *
+	 * @param name Name of the engine
+	 * @return Name the metrics are registered under
+	 * @throws IllegalStateException If the name is taken, or the metrics cannot be registered
+	 */
+	public ObjectName register(String name) {
+		try {
+			ObjectName objectName = new ObjectName("lse:type=SearchEngine,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			return objectName;
+		} catch (JMException e) {
+			throw new IllegalStateException("cannot register metrics " + name, e);
+		}
+	}
+
+	public long getDocumentsTokenized() {
+		return documentsTokenized.get();
+	}
+
+	public long getWordsTokenized() {
+		return words.get();
+	}
+
+	public long getBytesTokenized() {
+		return bytes.get();
+	}
+
+	public double getTokenizeMillis() {
+		return tokenizeNanos.get() / 1e6;
+	}
+
+	/**
+	 * Returns the words tokenized per second of tokenizing time, summed over threads.
+	 */
+	public double getWordsPerSecond() {
+		long nanos = tokenizeNanos.get();
+		return nanos == 0 ? 0 : words.get() / (nanos / 1e9);
+	}
+
+	public long getDocumentsMerged() {
+		return documentsMerged.get();
+	}
+
+	public long getPostingsMerged() {
+		return postings.get();
+	}
+
+	public double getMergeMillis() {
+		return mergeNanos.get() / 1e6;
+	}
+
+	public long getSearches() {
+		return allSearches.count();
+	}
+
+	public double getSearchMeanMicros() {
+		return allSearches.mean() / 1e3;
+	}
+
+	public double getSearchP50Micros() {
+		return allSearches.percentile(50) / 1e3;
+	}
+
+	public double getSearchP90Micros() {
+		return allSearches.percentile(90) / 1e3;
+	}
+
+	public double getSearchP99Micros() {
+		return allSearches.percentile(99) / 1e3;
+	}
+
+	public double getSearchMaxMicros() {
+		return allSearches.max() / 1e3;
+	}
+
+	public long getCacheHits() {
+		return engine.queryCache().hits();
+	}
+
+	public long getCacheMisses() {
+		return engine.queryCache().misses();
+	}
+
+	public long getCacheEvictions() {
+		return engine.queryCache().evictions();
+	}
+
+	public double getCacheHitRate() {
+		return engine.queryCache().hitRate();
+	}
+
+	/**
+	 * Returns the distribution of posting list lengths. See LittleSearchEngine.postingListLengths.
+	 */
+	public long[] getPostingListLengths() {
+		return engine.postingListLengths();
+	}
+
+	/**
+	 * Returns a latency percentile of one kind of search.
+	 *
+	 * @param search Name of a Search constant, such as "TOP_K"
+	 * @param percentile Percentage, 0 to 100
+	 * @return Latency in microseconds
+	 */
+	public double searchLatencyMicros(String search, double percentile) {
+		return searches.get(Search.valueOf(search)).percentile(percentile) / 1e3;
+	}
+
+	/**
+	 * Sets all counters and histograms back to 0. The query cache counts are not changed.
+	 */
+	public void reset() {
+		for (AtomicLong counter : Arrays.asList(documentsTokenized, words, bytes, tokenizeNanos,
+				documentsMerged, postings, mergeNanos)) {
+			counter.set(0);
+		}
+		for (LatencyHistogram h : searches.values()) {
+			h.reset();
+		}
+		allSearches.reset();
+	}
+
+	public String toString() {
+		return String.format("%d docs tokenized (%.0f words/sec), %d docs merged in %.1f ms, %d searches (p50 %.1f us, p99 %.1f us), cache %.1f%% hits",
+				getDocumentsTokenized(), getWordsPerSecond(), getDocumentsMerged(), getMergeMillis(),
+				getSearches(), getSearchP50Micros(), getSearchP99Micros(), 100 * getCacheHitRate());
+	}
+}
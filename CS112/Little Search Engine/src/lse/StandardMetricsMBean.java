@@ -0,0 +1,51 @@
+package lse;
+
+/**
+ * Attributes and operations of StandardMetrics seen through JMX. Times are in milliseconds
+ * (totals) or microseconds (latencies); latencies are over all kinds of searches.
+ *
+ */
+public interface StandardMetricsMBean {
+
+	long getDocumentsTokenized();
+
+	long getWordsTokenized();
+
+	long getBytesTokenized();
+
+	double getTokenizeMillis();
+
+	double getWordsPerSecond();
+
+	long getDocumentsMerged();
+
+	long getPostingsMerged();
+
+	double getMergeMillis();
+
+	long getSearches();
+
+	double getSearchMeanMicros();
+
+	double getSearchP50Micros();
+
+	double getSearchP90Micros();
+
+	double getSearchP99Micros();
+
+	double getSearchMaxMicros();
+
+	long getCacheHits();
+
+	long getCacheMisses();
+
+	long getCacheEvictions();
+
+	double getCacheHitRate();
+
+	long[] getPostingListLengths();
+
+	double searchLatencyMicros(String search, double percentile);
+
+	void reset();
+}
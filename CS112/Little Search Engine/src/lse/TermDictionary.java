@@ -0,0 +1,193 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * Sorted dictionary of keywords, for prefix and wildcard lookups. Keywords are front coded
+ * in blocks of BLOCK keywords: the first keyword of each block is kept whole, and each of
+ * the others as the length of the prefix it shares with the keyword before it, the length of
+ * the rest, and the rest. A lookup binary searches the first keywords of the blocks, then
+ * decodes forward from there, so keywords are only turned into Strings when they match.
+ *
+ * A dictionary is not changed once built.
+ *
+ */
+public class TermDictionary {
+
+	/**
+	 * Number of keywords per block.
+	 */
+	static final int BLOCK = 16;
+
+	/**
+	 * First keyword of each block, and where the rest of the block starts in data.
+	 */
+	private final String[] firsts;
+	private final int[] offsets;
+
+	/**
+	 * The front coded keywords: shared prefix length, suffix length, suffix characters.
+	 */
+	private final char[] data;
+
+	private final int size;
+
+	/**
+	 * Builds a dictionary of the given keywords.
+	 *
+	 * @param keywords Keywords, in any order, without repeats
+	 */
+	public TermDictionary(Collection<String> keywords) {
+		String[] sorted = keywords.toArray(new String[keywords.size()]);
+		Arrays.sort(sorted);
+		size = sorted.length;
+		firsts = new String[(size + BLOCK - 1) / BLOCK];
+		offsets = new int[firsts.length];
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			if (i % BLOCK == 0) {
+				firsts[i / BLOCK] = sorted[i];
+				offsets[i / BLOCK] = sb.length();
+			} else {
+				String prev = sorted[i-1], term = sorted[i];
+				int shared = 0;
+				int max = Math.min(prev.length(), term.length());
+				while (shared < max && prev.charAt(shared) == term.charAt(shared)) {
+					shared++;
+				}
+				sb.append((char)shared).append((char)(term.length() - shared)).append(term, shared, term.length());
+			}
+		}
+		data = new char[sb.length()];
+		sb.getChars(0, data.length, data, 0);
+	}
+
+	/**
+	 * Returns the number of keywords.
+	 *
+	 * @return Number of keywords
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the approximate number of bytes the dictionary takes in memory.
+	 *
+	 * @return Bytes
+	 */
+	public long bytes() {
+		long bytes = 2L * data.length + 4L * offsets.length;
+		for (String first : firsts) {
+			bytes += 48 + 2L * first.length();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the keywords that match a pattern, in sorted order. In the pattern '*' matches
+	 * any number of characters and '?' matches one character; all other characters match
+	 * themselves. Only the keywords that start with the part of the pattern before the first
+	 * wildcard are decoded.
+	 *
+	 * @param pattern Pattern
+	 * @param max Most keywords returned
+	 * @return Matching keywords, at most max of them
+	 */
+	public ArrayList<String> expand(String pattern, int max) {
+		ArrayList<String> terms = new ArrayList<String>();
+		int wildcard = 0;
+		while (wildcard < pattern.length() && pattern.charAt(wildcard) != '*' && pattern.charAt(wildcard) != '?') {
+			wildcard++;
+		}
+		String prefix = pattern.substring(0, wildcard);
+		if (size == 0 || max <= 0) {
+			return terms;
+		}
+
+		// last block whose first keyword is not after the prefix
+		int lo = 0, hi = firsts.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (firsts[mid].compareTo(prefix) <= 0) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+
+		char[] term = new char[16];
+		int length = 0;
+		for (int block = lo; block < firsts.length; block++) {
+			int pos = offsets[block];
+			for (int i = block * BLOCK; i < Math.min(size, (block + 1) * BLOCK); i++) {
+				if (i == block * BLOCK) {
+					length = firsts[block].length();
+					if (term.length < length) {
+						term = new char[length * 2];
+					}
+					firsts[block].getChars(0, length, term, 0);
+				} else {
+					int shared = data[pos], rest = data[pos + 1];
+					length = shared + rest;
+					if (term.length < length) {
+						term = Arrays.copyOf(term, length * 2);
+					}
+					System.arraycopy(data, pos + 2, term, shared, rest);
+					pos += 2 + rest;
+				}
+				int c = comparePrefix(term, length, prefix);
+				if (c > 0) {
+					return terms;
+				}
+				if (c == 0 && matches(term, wildcard, length, pattern, wildcard)) {
+					terms.add(new String(term, 0, length));
+					if (terms.size() == max) {
+						return terms;
+					}
+				}
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Compares the start of a keyword with a prefix: negative if the keyword sorts before
+	 * every keyword with the prefix, 0 if it has the prefix, positive if after.
+	 */
+	private static int comparePrefix(char[] term, int length, String prefix) {
+		int n = Math.min(length, prefix.length());
+		for (int i = 0; i < n; i++) {
+			if (term[i] != prefix.charAt(i)) {
+				return term[i] - prefix.charAt(i);
+			}
+		}
+		return length < prefix.length() ? -1 : 0;
+	}
+
+	/**
+	 * Tells if term[t..length-1] matches pattern[p..].
+	 */
+	private static boolean matches(char[] term, int t, int length, String pattern, int p) {
+		// backtrack to the last '*' on a mismatch
+		int star = -1, starT = 0;
+		while (t < length) {
+			if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == term[t])) {
+				p++;
+				t++;
+			} else if (p < pattern.length() && pattern.charAt(p) == '*') {
+				star = p++;
+				starT = t;
+			} else if (star >= 0) {
+				p = star + 1;
+				t = ++starT;
+			} else {
+				return false;
+			}
+		}
+		while (p < pattern.length() && pattern.charAt(p) == '*') {
+			p++;
+		}
+		return p == pattern.length();
+	}
+}
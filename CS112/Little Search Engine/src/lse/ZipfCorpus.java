@@ -0,0 +1,111 @@
+package lse;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Generates synthetic document collections for benchmarks. The words of some seed documents
+ * (as they appear, with case and punctuation, so noise words and non-keywords are in the mix)
+ * are ranked by how often they occur, and each generated document draws its words from that
+ * ranking with Zipf frequencies: the word of rank r with probability proportional to 1/r^s.
+ * So a few words are in nearly every document and most are in a few, as in real text, and
+ * posting lists of all lengths come out of one collection.
+ *
+ */
+public class ZipfCorpus {
+
+	/**
+	 * Seed words, most frequent first, and the cumulative Zipf weights of their ranks.
+	 */
+	private final String[] words;
+	private final double[] cumulative;
+
+	/**
+	 * Ranks the words of the seed documents.
+	 *
+	 * @param seedDocs Seed document files
+	 * @param exponent Zipf exponent s; 1 is typical of natural language
+	 * @throws FileNotFoundException If a seed document is not found
+	 */
+	public ZipfCorpus(List<String> seedDocs, double exponent)
+	throws FileNotFoundException {
+		final HashMap<String,Integer> counts = new HashMap<String,Integer>();
+		for (String doc : seedDocs) {
+			Scanner sc = new Scanner(new File(doc));
+			while (sc.hasNext()) {
+				String word = sc.next();
+				Integer n = counts.get(word);
+				counts.put(word, n == null ? 1 : n + 1);
+			}
+			sc.close();
+		}
+		words = counts.keySet().toArray(new String[counts.size()]);
+		Arrays.sort(words, new Comparator<String>() {
+			public int compare(String a, String b) {
+				int c = counts.get(b) - counts.get(a);
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+		cumulative = new double[words.length];
+		for (int i = 0; i < words.length; i++) {
+			cumulative[i] = (i == 0 ? 0 : cumulative[i-1]) + 1 / Math.pow(i + 1, exponent);
+		}
+	}
+
+	/**
+	 * Returns the number of distinct seed words.
+	 *
+	 * @return Vocabulary size
+	 */
+	public int vocabularySize() {
+		return words.length;
+	}
+
+	/**
+	 * Draws a word.
+	 *
+	 * @param random Random source
+	 * @return Seed word, drawn with Zipf frequencies
+	 */
+	public String word(Random random) {
+		int i = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[words.length - 1]);
+		return words[i < 0 ? -i - 1 : i];
+	}
+
+	/**
+	 * Writes a collection of documents, 12 words to a line, and a docs file listing them.
+	 * Document lengths are uniform between half and one and a half times the given mean.
+	 *
+	 * @param dir Directory to write to
+	 * @param documents Number of documents
+	 * @param meanWords Mean number of words per document
+	 * @param seed Random seed; the same seed gives the same collection
+	 * @return The docs file
+	 * @throws IOException If there is a problem writing
+	 */
+	public File write(File dir, int documents, int meanWords, long seed)
+	throws IOException {
+		Random random = new Random(seed);
+		File docsFile = new File(dir, "docs.txt");
+		PrintWriter docs = new PrintWriter(new BufferedWriter(new FileWriter(docsFile)));
+		try {
+			for (int d = 0; d < documents; d++) {
+				File doc = new File(dir, "doc" + d + ".txt");
+				docs.println(doc.getPath());
+				int length = meanWords / 2 + random.nextInt(meanWords + 1);
+				PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(doc)));
+				try {
+					for (int w = 0; w < length; w++) {
+						out.print(word(random));
+						out.print(w % 12 == 11 ? '\n' : ' ');
+					}
+				} finally {
+					out.close();
+				}
+			}
+		} finally {
+			docs.close();
+		}
+		return docsFile;
+	}
+}